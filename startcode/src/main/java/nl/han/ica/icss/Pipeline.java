@@ -1,39 +1,90 @@
 package nl.han.ica.icss;
 
 import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTReader;
+import nl.han.ica.icss.ast.ASTWriter;
+import nl.han.ica.icss.ast.Literal;
+import nl.han.ica.icss.ast.SourcePositions;
+import nl.han.ica.icss.ast.VariableAssignment;
 import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.checker.RuleCache;
 import nl.han.ica.icss.checker.SemanticError;
 import nl.han.ica.icss.generator.Generator;
-import nl.han.ica.icss.parser.ASTListener;
-import nl.han.ica.icss.parser.ICSSLexer;
-import nl.han.ica.icss.parser.ICSSParser;
+import nl.han.ica.icss.parser.ByteBufferCharStream;
+import nl.han.ica.icss.parser.CompileSession;
+import nl.han.ica.icss.parser.CompileSessionPool;
+import nl.han.ica.icss.parser.IncrementalParser;
+import nl.han.ica.icss.parser.InternTable;
+import nl.han.ica.icss.parser.ParseStatistics;
 import nl.han.ica.icss.transforms.Evaluator;
+import nl.han.ica.icss.transforms.Optimizer;
+import nl.han.ica.icss.transforms.ProgramCache;
+import nl.han.ica.icss.transforms.ThemeEvaluator;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class Pipeline implements ANTLRErrorListener {
 
     private AST ast;
+    //The tree before the last transform, transforms leave it intact
+    private AST untransformedAST;
     private boolean parsed = false;
     private boolean checked = false;
     private boolean transformed = false;
+    private boolean parallelChecking = false;
+    private boolean parallelEvaluation = false;
+    private Optimizer optimizer;
+    private boolean reportingUnusedVariables = false;
+    //The results per rule of the last check, null when every check checks every rule
+    private RuleCache ruleCache;
+    //The compiled operations of the last transform, so a transform after an edit only compiles the changed items
+    private final ProgramCache programCache = new ProgramCache();
     private List<String> errors;
+    private final List<String> warnings = new ArrayList<>();
+    private final CompileSessionPool sessions;
+    private final IncrementalParser incrementalParser = new IncrementalParser();
 
     public Pipeline() {
+        this(new CompileSessionPool(1));
+    }
+
+    /**
+     * Creates a pipeline that borrows its lexer and parser from sessions, so many pipelines
+     * (possibly on different threads) can share warmed-up parser instances.
+     * @param sessions the pool to borrow a CompileSession from for every parse
+     */
+    public Pipeline(CompileSessionPool sessions) {
+        this.sessions = sessions;
         errors = new ArrayList<>();
     }
 
     public AST getAST() {
         return ast;
     }
+    /**
+     * @return the (checked) tree the last transform started from, or null when nothing was transformed since the last parse
+     */
+    public AST getUntransformedAST() {
+        return untransformedAST;
+    }
+    /**
+     * @return the warnings of the last check, such as unused variables
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
     public List<String> getErrors() {
         return errors;
     }
@@ -46,31 +97,163 @@ public class Pipeline implements ANTLRErrorListener {
     public boolean isTransformed() {
         return transformed;
     }
+    public ParseStatistics getParseStatistics() {
+        return sessions.getParseStatistics();
+    }
+
+    /**
+     * In two-stage mode the input is first parsed with SLL prediction, bailing out on the first error.
+     * Only when that fails it is parsed again with full LL prediction and the normal error reporting.
+     * Pipelines that share a CompileSessionPool also share this setting.
+     */
+    public void setTwoStageParsing(boolean twoStageParsing) {
+        sessions.setTwoStageParsing(twoStageParsing);
+    }
+
+    /**
+     * When buildParseTree is off the AST is built while parsing and the parse tree is never kept.
+     * Pipelines that share a CompileSessionPool also share this setting.
+     */
+    public void setBuildParseTree(boolean buildParseTree) {
+        sessions.setBuildParseTree(buildParseTree);
+    }
+
+    /**
+     * Switches between the generated ICSSLexer and the hand-written ICSSScanner.
+     * Pipelines that share a CompileSessionPool also share this setting.
+     */
+    public void setHandWrittenLexer(boolean handWrittenLexer) {
+        sessions.setHandWrittenLexer(handWrittenLexer);
+    }
+
+    /**
+     * Keeps the tokens in int arrays instead of one token object each, see CompactTokenStream.
+     * Pipelines that share a CompileSessionPool also share this setting.
+     */
+    public void setCompactTokenStream(boolean compactTokenStream) {
+        sessions.setCompactTokenStream(compactTokenStream);
+    }
+
+    /**
+     * Shares one InternTable between all parses, so documents that use the same names share their instances.
+     * Use a bounded table, it is never cleared. Pipelines that share a CompileSessionPool also share this setting.
+     * @param sharedNames the table to use, or null to give every parse its own table
+     */
+    public void setSharedInternTable(InternTable sharedNames) {
+        sessions.setSharedInternTable(sharedNames);
+    }
+
+    /**
+     * Checks the stylerules at the same time on the common ForkJoinPool, which pays off for
+     * stylesheets with thousands of rules. The errors are the same as those of a normal check.
+     */
+    public void setParallelChecking(boolean parallelChecking) {
+        this.parallelChecking = parallelChecking;
+    }
+
+    /**
+     * Evaluates the stylerules at the same time on the common ForkJoinPool during transform. The
+     * transformed tree is the same as that of a normal transform.
+     */
+    public void setParallelEvaluation(boolean parallelEvaluation) {
+        this.parallelEvaluation = parallelEvaluation;
+    }
+
+    /**
+     * Runs the Optimizer after the Evaluator in transform, which merges rules and drops overridden
+     * declarations so the generated CSS gets smaller.
+     */
+    public void setOptimizing(boolean optimizing) {
+        optimizer = optimizing ? new Optimizer() : null;
+    }
+
+    /**
+     * @return the bytes of CSS the Optimizer saved in the last transform, 0 when it did not run
+     */
+    public long getBytesSaved() {
+        return optimizer == null ? 0 : optimizer.getBytesSaved();
+    }
+
+    /**
+     * Makes check warn about variables that are assigned but never read.
+     */
+    public void setReportingUnusedVariables(boolean reportingUnusedVariables) {
+        this.reportingUnusedVariables = reportingUnusedVariables;
+    }
+
+    /**
+     * Only checks the rules that changed since the last check, or that read a global variable
+     * whose type changed. Works best with parseIncremental, which keeps the rules an edit does not touch.
+     */
+    public void setIncrementalChecking(boolean incrementalChecking) {
+        ruleCache = incrementalChecking ? new RuleCache() : null;
+    }
 
     public void parseString(String input) {
+        parse(CharStreams.fromString(input));
+    }
 
-        //Lex (with Antlr's generated lexer)
-        CharStream inputStream = CharStreams.fromString(input);
-        ICSSLexer lexer = new ICSSLexer(inputStream);
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(this);
-        errors.clear();
-        try {
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
+    /**
+     * Parses the file at path. The file is memory-mapped and lexed in place, without copying it to a String first.
+     * @param path the ICSS file to parse
+     */
+    public void parse(Path path) throws IOException {
+        parse(ByteBufferCharStream.fromPath(path));
+    }
 
-            //Parse (with Antlr's generated parser)
-            ICSSParser parser = new ICSSParser(tokens);
-            parser.removeErrorListeners();
-            parser.addErrorListener(this);
+    /**
+     * Parses everything that can be read from channel.
+     * @param channel the channel to read the ICSS source from
+     */
+    public void parse(ReadableByteChannel channel) throws IOException {
+        parse(ByteBufferCharStream.fromChannel(channel, null));
+    }
 
-            ParseTree parseTree = parser.stylesheet();
+    /**
+     * Parses input like parseString, but only reparses the top-level items that changed since the
+     * previous call. The other stylerules and variable assignments are kept as they are.
+     * @param input the complete, edited ICSS source
+     */
+    public void parseIncremental(String input) {
+        errors.clear();
+        this.ast = incrementalParser.update(input, this);
+        untransformedAST = null;
+        parsed = errors.isEmpty();
+        checked = transformed = false;
+    }
 
-            //Extract AST from the Antlr parse tree
-            ASTListener listener = new ASTListener();
-            ParseTreeWalker walker = new ParseTreeWalker();
-            walker.walk(listener, parseTree);
+    /**
+     * Writes the current AST, with its semantic errors, to path in the binary AST format.
+     */
+    public void saveAST(Path path) throws IOException {
+        try (ASTWriter writer = new ASTWriter(Files.newOutputStream(path))) {
+            writer.write(ast, checked);
+        }
+    }
 
-            this.ast = listener.getAST();
+    /**
+     * Loads an AST written by saveAST instead of parsing (and checking) the source again.
+     */
+    public void loadAST(Path path) throws IOException {
+        errors.clear();
+        untransformedAST = null;
+        try (ASTReader reader = new ASTReader(Files.newInputStream(path))) {
+            AST loaded = reader.read();
+            if (loaded == null) {
+                throw new IOException("No AST in " + path);
+            }
+            ast = loaded;
+            parsed = true;
+            checked = reader.wasChecked();
+            transformed = false;
+        }
+    }
+
+    private void parse(CharStream inputStream) {
+        errors.clear();
+        untransformedAST = null;
+        try (CompileSession session = sessions.borrow()) {
+            this.ast = session.parse(inputStream, this);
 
         } catch (RecognitionException e) {
             this.ast = new AST();
@@ -87,7 +270,9 @@ public class Pipeline implements ANTLRErrorListener {
             if(ast == null)
                 return false;
 
-           (new Checker()).check(this.ast);
+           Checker checker = new Checker();
+           checker.setCache(ruleCache);
+           checker.check(this.ast, parallelChecking ? ForkJoinPool.commonPool() : null);
 
             ArrayList<SemanticError> errors = this.ast.getErrors();
             if (!errors.isEmpty()) {
@@ -96,6 +281,16 @@ public class Pipeline implements ANTLRErrorListener {
                 }
             }
 
+            warnings.clear();
+            if (reportingUnusedVariables) {
+                SourcePositions positions = this.ast.getSourcePositions();
+                for (VariableAssignment unused : checker.getUnusedVariables()) {
+                    int line = positions == null ? SourcePositions.UNKNOWN : positions.getLine(unused);
+                    warnings.add("WARNING: Variable " + unused.name.name + " is never used"
+                            + (line == SourcePositions.UNKNOWN ? "" : " (line " + line + ")"));
+                }
+            }
+
             checked = errors.isEmpty();
             transformed = false;
             return errors.isEmpty();
@@ -109,8 +304,12 @@ public class Pipeline implements ANTLRErrorListener {
         if(ast == null)
             return;
 
-        (new Evaluator()).apply(ast);
-
+        untransformedAST = ast;
+        Evaluator evaluator = new Evaluator();
+        evaluator.setCache(programCache);
+        ast = evaluator.transform(ast, parallelEvaluation ? ForkJoinPool.commonPool() : null);
+        if(optimizer != null)
+            ast = optimizer.transform(ast);
 
         transformed = errors.isEmpty();
     }
@@ -119,6 +318,19 @@ public class Pipeline implements ANTLRErrorListener {
         return generator.generate(ast);
     }
 
+    /**
+     * Generates the CSS of the checked stylesheet once per theme, a theme gives global variables
+     * other values. The stylesheet is not checked again and the themes are evaluated in parallel.
+     * @return the CSS per theme, or null when the stylesheet was not checked without errors
+     */
+    public List<String> generateThemes(List<Map<String, Literal>> themes) {
+        if(!checked)
+            return null;
+
+        AST checkedAST = untransformedAST != null ? untransformedAST : ast;
+        return new ThemeEvaluator(checkedAST).generate(themes, ForkJoinPool.commonPool());
+    }
+
     //Catch ANTLR errors
     @Override
     public void reportAmbiguity(Parser arg0, DFA arg1, int arg2, int arg3,
@@ -1,5 +1,6 @@
 package nl.han.ica.icss.ast;
 
+import nl.han.ica.icss.checker.ErrorTable;
 import nl.han.ica.icss.checker.SemanticError;
 
 import java.util.ArrayList;
@@ -9,29 +10,55 @@ import java.util.Objects;
 public class AST {
 	//The root of the tree
 	public Stylesheet root;
+	//Where the nodes of the tree start in the source, see ASTNode.getSourceId
+	private SourcePositions sourcePositions;
+	//The errors the Checker found, null when the tree was not checked
+	private ErrorTable errorTable;
 
 	public AST() {
 		root = new Stylesheet();
+		sourcePositions = new SourcePositions();
 	}
 	public AST(Stylesheet stylesheet) {
 		root = stylesheet;
+		sourcePositions = new SourcePositions();
 	}
 	public void setRoot(Stylesheet stylesheet) {
 		root = stylesheet;
 	}
-    public ArrayList<SemanticError> getErrors() {
-	    ArrayList<SemanticError> errors = new ArrayList<>();
-        collectErrors(errors,root);
-        return errors;
-    }
-    private void collectErrors(ArrayList<SemanticError> errors, ASTNode node) {
-	    if(node.hasError()) {
-	        errors.add(node.getError());
-        }
-        for(ASTNode child: node.getChildren()) {
-	        collectErrors(errors,child);
-        }
-    }
+	public SourcePositions getSourcePositions() {
+		return sourcePositions;
+	}
+	public void setSourcePositions(SourcePositions sourcePositions) {
+		this.sourcePositions = sourcePositions;
+	}
+	public ErrorTable getErrorTable() {
+		return errorTable;
+	}
+	public void setErrorTable(ErrorTable errorTable) {
+		this.errorTable = errorTable;
+	}
+	/*
+	 * The errors of the last check in source order (see ErrorTable.getErrors), empty when the tree was not checked.
+	 */
+	public ArrayList<SemanticError> getErrors() {
+		return errorTable == null ? new ArrayList<>() : errorTable.getErrors();
+	}
+	/*
+	 * Forgets the structural hashes of all nodes, after the tree was changed through its fields.
+	 */
+	public void invalidateStructuralHashes() {
+		invalidateStructuralHashes(root);
+	}
+	private void invalidateStructuralHashes(ASTNode node) {
+		node.invalidateStructuralHash();
+		for(int i = 0; i < node.childCount(); i++) {
+			ASTNode child = node.childAt(i);
+			if(child != null) {
+				invalidateStructuralHashes(child);
+			}
+		}
+	}
 	@Override
 	public String toString() {
 		return root.toString();
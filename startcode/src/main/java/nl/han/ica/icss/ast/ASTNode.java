@@ -1,13 +1,18 @@
 package nl.han.ica.icss.ast;
 
-import nl.han.ica.icss.checker.SemanticError;
-
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ASTNode {
 
-    private SemanticError error = null;
+    //Counts the changes to nodes that were hashed, a cached hash is only valid for the count it was computed at
+    private static final AtomicLong changes = new AtomicLong();
+    //Cached by structuralHash(), valid while hashedAt equals the current count of changes
+    private long structuralHash = 0;
+    //The count of changes structuralHash was computed at, -1 when this node was never hashed
+    private volatile long hashedAt = -1;
+    //Index of the position of this node in the SourcePositions of its AST, -1 when unknown
+    private int sourceId = -1;
 
     /*
      This method is used in the GUI to create an appropriate label
@@ -24,6 +29,19 @@ public class ASTNode {
     public ArrayList<ASTNode> getChildren() {
         return new ArrayList<>();
     }
+    /*
+     The number of children getChildren() would return. Together with childAt this walks
+     the children without allocating a list, so recursive walks should use these two.
+      */
+    public int childCount() {
+        return 0;
+    }
+    /*
+     The child at index in the order of getChildren().
+      */
+    public ASTNode childAt(int index) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + childCount());
+    }
     /*
     By implementing this method in a subclass you can easily create AST nodes
       incrementally.
@@ -38,16 +56,12 @@ public class ASTNode {
         return this;
     }
 
-    public SemanticError getError() {
-        return this.error;
-    }
-
-    public void setError(String description) {
-        this.error = new SemanticError(description);
+    public int getSourceId() {
+        return sourceId;
     }
 
-    public boolean hasError() {
-        return error != null;
+    public void setSourceId(int sourceId) {
+        this.sourceId = sourceId;
     }
 
 	@Override
@@ -60,7 +74,8 @@ public class ASTNode {
 		builder.append("[");
 		builder.append(getNodeLabel());	
 		builder.append("|");
-		for(ASTNode child : getChildren()) {
+		for(int i = 0; i < childCount(); i++) {
+            ASTNode child = childAt(i);
             if (child != null) {
                     child.toString(builder);
             }
@@ -68,20 +83,95 @@ public class ASTNode {
 		builder.append("]");
 	}
 
+	/*
+	 A 64 bit hash of the class, the own value and the children of this node, computed
+	 bottom-up from the hashes of the children. Equal subtrees always get the same
+	 hash, so it can be used as a cache key for results per rule or declaration.
+	 Every node keeps its hash. Nodes do not know their parents, and subtrees are shared between
+	 trees, so a change cannot clear the hashes above it one by one. Instead a change to a node
+	 that was hashed counts as a change to all trees, and every hash is computed again once when
+	 it is asked for next. Building new nodes, like parsing and transforming do, changes nothing
+	 that was hashed, so the hashes of the rules that stay are kept.
+	 addChild and removeChild report their change. Code that changes a field directly has to call
+	 invalidateStructuralHash on the node it changed.
+	  */
+	public long structuralHash() {
+		long current = changes.get();
+		if (hashedAt == current) {
+			return structuralHash;
+		}
+		long hash = getClass().getName().hashCode() * 0x9E3779B97F4A7C15L + localHash();
+		for(int i = 0; i < childCount(); i++) {
+			ASTNode child = childAt(i);
+			hash = hash * 0x100000001B3L + (child == null ? 0x5BD1E995L : child.structuralHash());
+		}
+		//Spread the bits so similar trees do not get similar hashes
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		//Written before the volatile stamp, so a thread that sees the stamp also sees the hash
+		structuralHash = hash;
+		hashedAt = current;
+		return hash;
+	}
+
+	public void invalidateStructuralHash() {
+		//A node that was never hashed has no hashed ancestors either, its change makes no hash stale
+		if (hashedAt != -1) {
+			changes.incrementAndGet();
+		}
+	}
+
+	/*
+	 Subclasses with a value of their own (a name, a selector, a literal value) mix it in here,
+	 and compare it in localEquals.
+	  */
+	protected long localHash() {
+		return 0;
+	}
+
+	protected boolean localEquals(ASTNode other) {
+		return true;
+	}
+
 	@Override
     public boolean equals(Object o) {
-        if(! (o instanceof ASTNode))
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        ASTNode other = (ASTNode) o;
+        //Different hashes mean different trees, only equal hashes need a full comparison
+        if (structuralHash() != other.structuralHash())
             return false;
-        //Compare all children
-        List<ASTNode> thisChildren = this.getChildren();
-        List<ASTNode> otherChildren = ((ASTNode) o).getChildren();
-        if(otherChildren.size() != thisChildren.size())
+        return sameTree(other);
+    }
+
+    //Compares the subtrees without hashing them again at every level
+    private boolean sameTree(ASTNode other) {
+        if (this == other)
+            return true;
+        if (getClass() != other.getClass() || !localEquals(other))
+            return false;
+        int count = this.childCount();
+        if(other.childCount() != count)
             return false;
-        for(int i = 0; i < thisChildren.size(); i++ ) {
-            if(!thisChildren.get(i).equals(otherChildren.get(i))) {
+        for(int i = 0; i < count; i++ ) {
+            ASTNode child = this.childAt(i);
+            ASTNode otherChild = other.childAt(i);
+            if (child == null || otherChild == null) {
+                if (child != otherChild)
+                    return false;
+            } else if (!child.sameTree(otherChild)) {
                 return false;
             }
         }
         return true;
     }
+
+	@Override
+	public int hashCode() {
+		long hash = structuralHash();
+		return (int) (hash ^ (hash >>> 32));
+	}
 }
@@ -0,0 +1,152 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.checker.ErrorCode;
+import nl.han.ica.icss.checker.ErrorTable;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Reads the ASTs written by an ASTWriter, one record at a time.
+ */
+public class ASTReader implements Closeable {
+
+    private final DataInputStream in;
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final int version;
+    private boolean checked = false;
+    //The errors of the AST being read
+    private ErrorTable errors;
+
+    /**
+     * Reads and verifies the header of in.
+     * @throws IOException when in does not hold an AST stream of a supported version
+     */
+    public ASTReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        int magic;
+        try {
+            magic = this.in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Not an ICSS AST stream: too short");
+        }
+        if (magic != ASTWriter.MAGIC) {
+            throw new IOException("Not an ICSS AST stream");
+        }
+        version = this.in.readUnsignedShort();
+        if (version < 1 || version > ASTWriter.VERSION) {
+            throw new IOException("Unsupported ICSS AST format version " + version);
+        }
+    }
+
+    /**
+     * @return the next AST of the stream, or null at the end of the stream
+     * @throws IOException also when the stream is truncated or corrupt
+     */
+    public AST read() throws IOException {
+        int flags = in.read();
+        if (flags < 0) {
+            return null;
+        }
+        checked = (flags & ASTWriter.FLAG_CHECKED) != 0;
+        errors = new ErrorTable();
+        ASTNode root = readNode();
+        if (!(root instanceof Stylesheet)) {
+            throw new IOException("Corrupt ICSS AST stream: the root is not a stylesheet");
+        }
+        AST ast = new AST((Stylesheet) root);
+        //Unchecked trees without errors get no table, as if they were just parsed
+        if (checked || !errors.isEmpty()) {
+            ast.setErrorTable(errors);
+        }
+        return ast;
+    }
+
+    /**
+     * @return whether the Checker had run on the AST returned by the last read
+     */
+    public boolean wasChecked() {
+        return checked;
+    }
+
+    private ASTNode readNode() throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == ASTWriter.TAG_NULL) {
+            return null;
+        }
+        int kind = tag & ASTWriter.TAG_KIND;
+        ASTNode node;
+        try {
+            if (CompactAST.hasString(kind)) {
+                node = CompactAST.createNode(kind, 0, readString());
+            } else {
+                node = CompactAST.createNode(kind, unZigZag(readVarInt()), null);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt ICSS AST stream: " + e.getMessage());
+        }
+        if ((tag & ASTWriter.TAG_ERROR) != 0) {
+            String description = readString();
+            ErrorCode code = null;
+            if (version >= 2) {
+                int number = readVarInt();
+                if (number < 0 || number > ErrorCode.values().length) {
+                    throw new IOException("Corrupt ICSS AST stream: unknown error code " + number);
+                }
+                code = number == 0 ? null : ErrorCode.values()[number - 1];
+            }
+            errors.report(node, code, description);
+        }
+        int count = readVarInt();
+        for (int i = 0; i < count; i++) {
+            ASTNode child = readNode();
+            //A missing IfClause condition is written as a null child, which is simply left unset
+            if (child != null) {
+                try {
+                    node.addChild(child);
+                } catch (ClassCastException e) {
+                    throw new IOException("Corrupt ICSS AST stream: a " + child.getClass().getSimpleName()
+                            + " cannot be a child of a " + node.getClass().getSimpleName());
+                }
+            }
+        }
+        return node;
+    }
+
+    private String readString() throws IOException {
+        int reference = readVarInt();
+        if (reference == 0) {
+            return null;
+        }
+        if (reference == 1) {
+            String string = in.readUTF();
+            strings.add(string);
+            return string;
+        }
+        if (reference < 0 || reference - 2 >= strings.size()) {
+            throw new IOException("Corrupt ICSS AST stream: unknown string " + (reference - 2));
+        }
+        return strings.get(reference - 2);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt ICSS AST stream: variable length number too long");
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
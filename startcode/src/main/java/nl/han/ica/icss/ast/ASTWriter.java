@@ -0,0 +1,117 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.checker.ErrorTable;
+import nl.han.ica.icss.checker.SemanticError;
+
+import java.io.*;
+import java.util.HashMap;
+
+/**
+ * Writes ASTs in the binary ICSS AST format, one record per AST, so a whole library of
+ * stylesheets can be streamed into one file and read back with an ASTReader.
+ *
+ * The stream starts with the magic number and the format version. Every record has a flags byte
+ * followed by the nodes in pre-order: a tag with the node kind (the CompactAST kinds) and an error
+ * bit, the name or value of the node, its error description and code and its children. Strings are
+ * written once per stream and referred to by number after that.
+ *
+ * Version 2 added the error codes, an ASTReader still reads version 1 streams.
+ */
+public class ASTWriter implements Closeable, Flushable {
+
+    public static final int MAGIC = 0x49435341; //"ICSA"
+    public static final int VERSION = 2;
+
+    static final int FLAG_CHECKED = 1;
+    static final int TAG_KIND = 0x1F;
+    static final int TAG_ERROR = 0x20;
+    static final int TAG_NULL = 0x1F;
+
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> stringIndexes = new HashMap<>();
+    //The errors of the AST being written, null when it was not checked
+    private ErrorTable errors;
+
+    /**
+     * Writes the header to out.
+     */
+    public ASTWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+    }
+
+    /**
+     * Appends ast as the next record.
+     * @param checked whether the Checker ran on ast, the errors in its ErrorTable are always written
+     */
+    public void write(AST ast, boolean checked) throws IOException {
+        out.writeByte(checked ? FLAG_CHECKED : 0);
+        errors = ast.getErrorTable();
+        writeNode(ast.root);
+        errors = null;
+    }
+
+    private void writeNode(ASTNode node) throws IOException {
+        if (node == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+        int kind = CompactAST.kindOf(node);
+        SemanticError error = errors == null ? null : errors.getError(node);
+        out.writeByte(kind | (error != null ? TAG_ERROR : 0));
+        if (CompactAST.hasString(kind)) {
+            writeString(CompactAST.stringOf(node));
+        } else {
+            writeVarInt(zigZag(CompactAST.valueOf(node)));
+        }
+        if (error != null) {
+            writeString(error.description);
+            //0 is no code, n is the (n - 1)th ErrorCode
+            writeVarInt(error.code == null ? 0 : error.code.ordinal() + 1);
+        }
+        int count = node.childCount();
+        writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            writeNode(node.childAt(i));
+        }
+    }
+
+    //0 is null, 1 is a new string that follows, n refers to the (n - 2)th string of the stream
+    private void writeString(String string) throws IOException {
+        if (string == null) {
+            writeVarInt(0);
+            return;
+        }
+        Integer index = stringIndexes.get(string);
+        if (index != null) {
+            writeVarInt(index + 2);
+        } else {
+            writeVarInt(1);
+            out.writeUTF(string);
+            stringIndexes.put(string, stringIndexes.size());
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
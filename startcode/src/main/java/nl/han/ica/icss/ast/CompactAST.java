@@ -0,0 +1,267 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.ast.literals.*;
+import nl.han.ica.icss.ast.operations.*;
+import nl.han.ica.icss.ast.selectors.ClassSelector;
+import nl.han.ica.icss.ast.selectors.IdSelector;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An AST stored as a struct of arrays. Every node is an index into four int arrays: its kind,
+ * its first child, its next sibling and a payload. The payload is the value of a pixel,
+ * percentage, scalar or bool literal, or an index into the string table for names, selectors
+ * and colors. Node 0 is the stylesheet, NONE marks a missing child or sibling.
+ *
+ * Children are stored in the order getChildren() returns them, so a Stylerule has its
+ * selectors before its body and an IfClause has its condition first and its else clause last.
+ * Semantic errors are not stored, convert back with toAST() to check the tree. The checker and
+ * the transforms only work on the object form, see Checker.checkConverted and Transform.applyConverted.
+ */
+public class CompactAST {
+
+    public static final int NONE = -1;
+
+    public static final int STYLESHEET = 0;
+    public static final int STYLERULE = 1;
+    public static final int CLASS_SELECTOR = 2;
+    public static final int ID_SELECTOR = 3;
+    public static final int TAG_SELECTOR = 4;
+    public static final int DECLARATION = 5;
+    public static final int PROPERTY_NAME = 6;
+    public static final int VARIABLE_ASSIGNMENT = 7;
+    public static final int VARIABLE_REFERENCE = 8;
+    public static final int IF_CLAUSE = 9;
+    public static final int ELSE_CLAUSE = 10;
+    public static final int ADD = 11;
+    public static final int SUBTRACT = 12;
+    public static final int MULTIPLY = 13;
+    public static final int EQUAL = 14;
+    public static final int GREATER_THAN = 15;
+    public static final int LESS_THAN = 16;
+    public static final int PIXEL_LITERAL = 17;
+    public static final int PERCENTAGE_LITERAL = 18;
+    public static final int SCALAR_LITERAL = 19;
+    public static final int COLOR_LITERAL = 20;
+    public static final int BOOL_LITERAL = 21;
+
+    private int[] kinds;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] payloads;
+    private int size = 0;
+
+    private final ArrayList<String> strings = new ArrayList<>();
+    private final HashMap<String, Integer> stringIndexes = new HashMap<>();
+
+    public CompactAST() {
+        this(64);
+    }
+
+    public CompactAST(int capacity) {
+        kinds = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        payloads = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getKind(int node) {
+        return kinds[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * @return the value of a pixel, percentage or scalar literal, or 1 for TRUE and 0 for FALSE
+     */
+    public int getValue(int node) {
+        return payloads[node];
+    }
+
+    /**
+     * @return the name, selector or color of node
+     */
+    public String getString(int node) {
+        return strings.get(payloads[node]);
+    }
+
+    /**
+     * Adds a node without children or siblings.
+     * @return the index of the new node
+     */
+    public int addNode(int kind, int payload) {
+        if (size == kinds.length) {
+            int capacity = Math.max(16, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        kinds[size] = kind;
+        firstChildren[size] = NONE;
+        nextSiblings[size] = NONE;
+        payloads[size] = payload;
+        return size++;
+    }
+
+    public int addNode(int kind, String payload) {
+        Integer index = stringIndexes.get(payload);
+        if (index == null) {
+            index = strings.size();
+            strings.add(payload);
+            stringIndexes.put(payload, index);
+        }
+        return addNode(kind, index);
+    }
+
+    /**
+     * Links node as the child after previousChild, or as the first child of parent when previousChild is NONE.
+     */
+    public void link(int parent, int previousChild, int node) {
+        if (previousChild == NONE) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[previousChild] = node;
+        }
+    }
+
+    public static CompactAST fromAST(AST ast) {
+        CompactAST compact = new CompactAST();
+        compact.add(ast.root);
+        return compact;
+    }
+
+    private int add(ASTNode node) {
+        int kind = kindOf(node);
+        String string = stringOf(node);
+        int index = string != null ? addNode(kind, string) : addNode(kind, valueOf(node));
+        int previous = NONE;
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child != null) {
+                int childIndex = add(child);
+                link(index, previous, childIndex);
+                previous = childIndex;
+            }
+        }
+        return index;
+    }
+
+    static int kindOf(ASTNode node) {
+        if (node instanceof Stylesheet) return STYLESHEET;
+        if (node instanceof Stylerule) return STYLERULE;
+        if (node instanceof ClassSelector) return CLASS_SELECTOR;
+        if (node instanceof IdSelector) return ID_SELECTOR;
+        if (node instanceof TagSelector) return TAG_SELECTOR;
+        if (node instanceof Declaration) return DECLARATION;
+        if (node instanceof PropertyName) return PROPERTY_NAME;
+        if (node instanceof VariableAssignment) return VARIABLE_ASSIGNMENT;
+        if (node instanceof VariableReference) return VARIABLE_REFERENCE;
+        if (node instanceof IfClause) return IF_CLAUSE;
+        if (node instanceof ElseClause) return ELSE_CLAUSE;
+        if (node instanceof AddOperation) return ADD;
+        if (node instanceof SubtractOperation) return SUBTRACT;
+        if (node instanceof MultiplyOperation) return MULTIPLY;
+        if (node instanceof EqualOperation) return EQUAL;
+        if (node instanceof GreaterThanOperation) return GREATER_THAN;
+        if (node instanceof LessThanOperation) return LESS_THAN;
+        if (node instanceof PixelLiteral) return PIXEL_LITERAL;
+        if (node instanceof PercentageLiteral) return PERCENTAGE_LITERAL;
+        if (node instanceof ScalarLiteral) return SCALAR_LITERAL;
+        if (node instanceof ColorLiteral) return COLOR_LITERAL;
+        if (node instanceof BoolLiteral) return BOOL_LITERAL;
+        throw new IllegalArgumentException("No compact form for " + node.getNodeLabel());
+    }
+
+    //The name, selector or color of node, null for nodes without one
+    static String stringOf(ASTNode node) {
+        if (node instanceof PropertyName) return ((PropertyName) node).name;
+        if (node instanceof VariableReference) return ((VariableReference) node).name;
+        if (node instanceof ClassSelector) return ((ClassSelector) node).cls;
+        if (node instanceof IdSelector) return ((IdSelector) node).id;
+        if (node instanceof TagSelector) return ((TagSelector) node).tag;
+        if (node instanceof ColorLiteral) return ((ColorLiteral) node).value;
+        return null;
+    }
+
+    //The literal value of node, 0 for nodes without one
+    static int valueOf(ASTNode node) {
+        if (node instanceof PixelLiteral) return ((PixelLiteral) node).value;
+        if (node instanceof PercentageLiteral) return ((PercentageLiteral) node).value;
+        if (node instanceof ScalarLiteral) return ((ScalarLiteral) node).value;
+        if (node instanceof BoolLiteral) return ((BoolLiteral) node).value ? 1 : 0;
+        return 0;
+    }
+
+    /**
+     * Builds the object form of this tree, for example to show it in the GUI or to compare it with Fixtures.
+     */
+    public AST toAST() {
+        return new AST((Stylesheet) toNode(0));
+    }
+
+    private ASTNode toNode(int node) {
+        int kind = kinds[node];
+        ASTNode result = createNode(kind, payloads[node], hasString(kind) ? getString(node) : null);
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            result.addChild(toNode(child));
+        }
+        return result;
+    }
+
+    static boolean hasString(int kind) {
+        switch (kind) {
+            case CLASS_SELECTOR:
+            case ID_SELECTOR:
+            case TAG_SELECTOR:
+            case PROPERTY_NAME:
+            case VARIABLE_REFERENCE:
+            case COLOR_LITERAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //Creates a node without children, string is only used by the kinds for which hasString is true
+    static ASTNode createNode(int kind, int value, String string) {
+        switch (kind) {
+            case STYLESHEET: return new Stylesheet();
+            case STYLERULE: return new Stylerule();
+            case CLASS_SELECTOR: return new ClassSelector(string);
+            case ID_SELECTOR: return new IdSelector(string);
+            case TAG_SELECTOR: return new TagSelector(string);
+            case DECLARATION: return new Declaration();
+            case PROPERTY_NAME: return new PropertyName(string);
+            case VARIABLE_ASSIGNMENT: return new VariableAssignment();
+            case VARIABLE_REFERENCE: return new VariableReference(string);
+            case IF_CLAUSE: return new IfClause();
+            case ELSE_CLAUSE: return new ElseClause();
+            case ADD: return new AddOperation();
+            case SUBTRACT: return new SubtractOperation();
+            case MULTIPLY: return new MultiplyOperation();
+            case EQUAL: return new EqualOperation();
+            case GREATER_THAN: return new GreaterThanOperation();
+            case LESS_THAN: return new LessThanOperation();
+            case PIXEL_LITERAL: return new PixelLiteral(value);
+            case PERCENTAGE_LITERAL: return new PercentageLiteral(value);
+            case SCALAR_LITERAL: return new ScalarLiteral(value);
+            case COLOR_LITERAL: return new ColorLiteral(string);
+            case BOOL_LITERAL: return new BoolLiteral(value != 0);
+            default: throw new IllegalArgumentException("Unknown node kind " + kind);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package nl.han.ica.icss.ast;
 
 import java.util.ArrayList;
-import java.util.Objects;
 
 public class ElseClause extends ASTNode{
 
@@ -25,28 +24,20 @@ public class ElseClause extends ASTNode{
 
         return children;
     }
-
     @Override
-    public ASTNode addChild(ASTNode child) {
-
-        body.add(child);
-
-        return this;
+    public int childCount() {
+        return body.size();
     }
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        ElseClause ElseClause = (ElseClause) o;
-        return Objects.equals(body, ElseClause.body);
+    public ASTNode childAt(int index) {
+        return body.get(index);
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(body);
-    }
-
-
+    public ASTNode addChild(ASTNode child) {
+        invalidateStructuralHash();
+        body.add(child);
 
+        return this;
+    }
 }
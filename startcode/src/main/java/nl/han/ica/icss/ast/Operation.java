@@ -17,8 +17,23 @@ public abstract class Operation extends Expression {
         return children;
     }
 
+    @Override
+    public int childCount() {
+        return (lhs != null ? 1 : 0) + (rhs != null ? 1 : 0);
+    }
+
+    @Override
+    public ASTNode childAt(int index) {
+        if(index == 0 && lhs != null)
+            return lhs;
+        if(index == childCount() - 1 && rhs != null)
+            return rhs;
+        return super.childAt(index);
+    }
+
     @Override
     public ASTNode addChild(ASTNode child) {
+        invalidateStructuralHash();
         if(lhs == null) {
             lhs = (Expression) child;
         } else if(rhs == null) {
@@ -1,5 +1,7 @@
 package nl.han.ica.icss.ast;
 
+import java.util.Objects;
+
 public class PropertyName extends ASTNode {
 
     public String name;
@@ -17,4 +19,14 @@ public class PropertyName extends ASTNode {
     public String getNodeLabel() {
         return "Property: (" + name + ")";
     }
+
+    @Override
+    protected long localHash() {
+        return Objects.hashCode(name);
+    }
+
+    @Override
+    protected boolean localEquals(ASTNode other) {
+        return Objects.equals(name, ((PropertyName) other).name);
+    }
 }
@@ -0,0 +1,221 @@
+package nl.han.ica.icss.ast;
+
+import java.util.Arrays;
+
+/**
+ * The source positions of the nodes of an AST, packed in one int array. A node finds its
+ * entry through its source id, which the AST builders set when they create the node.
+ * Nodes without a source id, such as the nodes made by a transform, have no known position.
+ *
+ * The entries of a subtree can be put in a group, for example one per top-level item. They are
+ * then kept relative to the start of the group, so moving the whole subtree after an edit
+ * earlier in the source only changes the group and not its entries.
+ */
+public class SourcePositions {
+
+    public static final int UNKNOWN = -1;
+
+    //Four ints per entry: start offset, line (1 based), column (0 based) and group (-1 for none).
+    //The entries of a group are relative to its start, the column only on the first line of the group
+    private int[] positions;
+    private int size = 0;
+    //Ids of removed entries, which add hands out again
+    private int[] freeIds = new int[0];
+    private int freeIdCount = 0;
+
+    //Three ints per group: start offset, line and column
+    private int[] groups = new int[0];
+    private int groupCount = 0;
+    private int[] freeGroups = new int[0];
+    private int freeGroupCount = 0;
+
+    public SourcePositions() {
+        this(64);
+    }
+
+    public SourcePositions(int capacity) {
+        positions = new int[4 * capacity];
+    }
+
+    /**
+     * Adds an entry.
+     * @return the source id of the new entry
+     */
+    public int add(int offset, int line, int column) {
+        int id;
+        if (freeIdCount > 0) {
+            id = freeIds[--freeIdCount];
+        } else {
+            if (4 * size == positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(64, positions.length * 2));
+            }
+            id = size++;
+        }
+        positions[4 * id + 3] = -1;
+        set(id, offset, line, column);
+        return id;
+    }
+
+    /**
+     * Records a position for node and gives node the new source id.
+     */
+    public void record(ASTNode node, int offset, int line, int column) {
+        node.setSourceId(add(offset, line, column));
+    }
+
+    /**
+     * Changes the entry of id, for example after an edit earlier in the source moved it.
+     */
+    public void set(int id, int offset, int line, int column) {
+        int group = positions[4 * id + 3];
+        if (group >= 0) {
+            int groupLine = groups[3 * group + 1];
+            offset -= groups[3 * group];
+            column -= line == groupLine ? groups[3 * group + 2] : 0;
+            line -= groupLine;
+        }
+        positions[4 * id] = offset;
+        positions[4 * id + 1] = line;
+        positions[4 * id + 2] = column;
+    }
+
+    /**
+     * @return the number of source ids handed out, including removed ones that are free again
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getOffset(int id) {
+        int group = positions[4 * id + 3];
+        return group < 0 ? positions[4 * id] : positions[4 * id] + groups[3 * group];
+    }
+
+    public int getLine(int id) {
+        int group = positions[4 * id + 3];
+        return group < 0 ? positions[4 * id + 1] : positions[4 * id + 1] + groups[3 * group + 1];
+    }
+
+    public int getColumn(int id) {
+        int group = positions[4 * id + 3];
+        if (group < 0 || positions[4 * id + 1] != 0) {
+            return positions[4 * id + 2];
+        }
+        return positions[4 * id + 2] + groups[3 * group + 2];
+    }
+
+    /**
+     * @return whether this table has an entry for node
+     */
+    public boolean contains(ASTNode node) {
+        int id = node.getSourceId();
+        return id >= 0 && id < size;
+    }
+
+    /**
+     * @return the start offset of node, or UNKNOWN
+     */
+    public int getOffset(ASTNode node) {
+        return contains(node) ? getOffset(node.getSourceId()) : UNKNOWN;
+    }
+
+    /**
+     * @return the line of node, or UNKNOWN
+     */
+    public int getLine(ASTNode node) {
+        return contains(node) ? getLine(node.getSourceId()) : UNKNOWN;
+    }
+
+    /**
+     * @return the column of node, or UNKNOWN
+     */
+    public int getColumn(ASTNode node) {
+        return contains(node) ? getColumn(node.getSourceId()) : UNKNOWN;
+    }
+
+    /**
+     * Removes the entries of node and the nodes below it, which lose their source id.
+     * Their ids are handed out again by add.
+     */
+    public void remove(ASTNode node) {
+        if (node == null) {
+            return;
+        }
+        if (contains(node)) {
+            if (freeIdCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, Math.max(64, freeIds.length * 2));
+            }
+            freeIds[freeIdCount++] = node.getSourceId();
+            node.setSourceId(-1);
+        }
+        for (int i = 0; i < node.childCount(); i++) {
+            remove(node.childAt(i));
+        }
+    }
+
+    /**
+     * Starts a group at the position of node and puts the entries of node and the nodes below it in it.
+     * @return the new group, or -1 when node has no position
+     */
+    public int addGroup(ASTNode node) {
+        if (!contains(node)) {
+            return -1;
+        }
+        int group;
+        if (freeGroupCount > 0) {
+            group = freeGroups[--freeGroupCount];
+        } else {
+            if (3 * groupCount == groups.length) {
+                groups = Arrays.copyOf(groups, Math.max(48, groups.length * 2));
+            }
+            group = groupCount++;
+        }
+        int id = node.getSourceId();
+        groups[3 * group] = getOffset(id);
+        groups[3 * group + 1] = getLine(id);
+        groups[3 * group + 2] = getColumn(id);
+        join(node, group);
+        return group;
+    }
+
+    private void join(ASTNode node, int group) {
+        if (node == null) {
+            return;
+        }
+        if (contains(node)) {
+            int id = node.getSourceId();
+            int offset = getOffset(id);
+            int line = getLine(id);
+            int column = getColumn(id);
+            positions[4 * id + 3] = group;
+            set(id, offset, line, column);
+        }
+        for (int i = 0; i < node.childCount(); i++) {
+            join(node.childAt(i), group);
+        }
+    }
+
+    /**
+     * Moves all entries of group. The column only moves on the first line of the group,
+     * as the rest of the first line moves sideways when text before it on that line changes.
+     */
+    public void moveGroup(int group, int offsetDelta, int lineDelta, int columnDelta) {
+        groups[3 * group] += offsetDelta;
+        groups[3 * group + 1] += lineDelta;
+        groups[3 * group + 2] += columnDelta;
+    }
+
+    public int getGroupLine(int group) {
+        return groups[3 * group + 1];
+    }
+
+    /**
+     * Frees group, so addGroup can reuse it once its entries are removed.
+     */
+    public void removeGroup(int group) {
+        if (freeGroupCount == freeGroups.length) {
+            freeGroups = Arrays.copyOf(freeGroups, Math.max(16, freeGroups.length * 2));
+        }
+        freeGroups[freeGroupCount++] = group;
+    }
+}
@@ -17,17 +17,12 @@ public class VariableReference extends Expression {
 	}
 
 	@Override
-	public boolean equals(Object o) {
-		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		if (!super.equals(o)) return false;
-		VariableReference that = (VariableReference) o;
-		return Objects.equals(name, that.name);
+	protected long localHash() {
+		return Objects.hashCode(name);
 	}
 
 	@Override
-	public int hashCode() {
-
-		return Objects.hash(name);
+	protected boolean localEquals(ASTNode other) {
+		return Objects.equals(name, ((VariableReference) other).name);
 	}
 }
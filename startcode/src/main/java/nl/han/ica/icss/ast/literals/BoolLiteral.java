@@ -1,7 +1,7 @@
 package nl.han.ica.icss.ast.literals;
 
+import nl.han.ica.icss.ast.ASTNode;
 import nl.han.ica.icss.ast.Literal;
-import java.util.Objects;
 
 public class BoolLiteral extends Literal {
     public boolean value;
@@ -19,16 +19,12 @@ public class BoolLiteral extends Literal {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        BoolLiteral that = (BoolLiteral) o;
-        return value == that.value;
+    protected long localHash() {
+        return value ? 1 : 0;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(value);
+    protected boolean localEquals(ASTNode other) {
+        return value == ((BoolLiteral) other).value;
     }
 }
@@ -1,5 +1,6 @@
 package nl.han.ica.icss.ast.literals;
 
+import nl.han.ica.icss.ast.ASTNode;
 import nl.han.ica.icss.ast.Literal;
 
 import java.util.Objects;
@@ -15,17 +16,13 @@ public class ColorLiteral extends Literal {
         return "Color literal (" + value + ")";
     }
 
-
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        ColorLiteral that = (ColorLiteral) o;
-        return Objects.equals(value, that.value);
+    protected long localHash() {
+        return Objects.hashCode(value);
     }
-    @Override
-    public int hashCode() {
 
-        return Objects.hash(value);
+    @Override
+    protected boolean localEquals(ASTNode other) {
+        return Objects.equals(value, ((ColorLiteral) other).value);
     }
 }
@@ -1,9 +1,8 @@
 package nl.han.ica.icss.ast.literals;
 
+import nl.han.ica.icss.ast.ASTNode;
 import nl.han.ica.icss.ast.Literal;
 
-import java.util.Objects;
-
 public class ScalarLiteral extends Literal {
     public int value;
 
@@ -19,16 +18,12 @@ public class ScalarLiteral extends Literal {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        ScalarLiteral that = (ScalarLiteral) o;
-        return value == that.value;
+    protected long localHash() {
+        return value;
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(value);
+    protected boolean localEquals(ASTNode other) {
+        return value == ((ScalarLiteral) other).value;
     }
 }
@@ -1,5 +1,6 @@
 package nl.han.ica.icss.ast.selectors;
 
+import nl.han.ica.icss.ast.ASTNode;
 import nl.han.ica.icss.ast.Selector;
 
 import java.util.Objects;
@@ -19,17 +20,12 @@ public class TagSelector extends Selector {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        TagSelector that = (TagSelector) o;
-        return Objects.equals(tag, that.tag);
+    protected long localHash() {
+        return Objects.hashCode(tag);
     }
 
     @Override
-    public int hashCode() {
-
-        return Objects.hash(tag);
+    protected boolean localEquals(ASTNode other) {
+        return Objects.equals(tag, ((TagSelector) other).tag);
     }
 }
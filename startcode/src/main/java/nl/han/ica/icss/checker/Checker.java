@@ -1,8 +1,6 @@
 package nl.han.ica.icss.checker;
 
-import nl.han.ica.datastructures.IHANLinkedList;
 import nl.han.ica.icss.ast.*;
-import nl.han.ica.datastructures.HANLinkedList;
 import nl.han.ica.icss.ast.literals.*;
 import nl.han.ica.icss.ast.operations.AddOperation;
 import nl.han.ica.icss.ast.operations.MultiplyOperation;
@@ -10,171 +8,426 @@ import nl.han.ica.icss.ast.operations.SubtractOperation;
 import nl.han.ica.icss.ast.types.ExpressionType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 
 public class Checker {
 
-    private IHANLinkedList<HashMap<String, ExpressionType>> variableTypes;
+    //The number of top level items below which a parallel check stops splitting the work
+    private static final int PARALLEL_THRESHOLD = 64;
 
+    //The types of the global variables by Resolver slot, null for variables that are not defined yet.
+    //A variable without a type is stored as UNDEFINED. Rules only read it, so they can share it.
+    private ExpressionType[] variableTypes;
+    //The types of the variables of the rule being checked, see Resolver.newLocalFrame
+    private ExpressionType[] localTypes;
+    private ErrorTable errors;
+    //The type of every operation typed so far, so no operation is typed twice
+    private IdentityHashMap<Operation, ExpressionType> operationTypes;
+    //The type of every global assignment of the last check, null for those without a type
+    private IdentityHashMap<VariableAssignment, ExpressionType> assignedTypes = new IdentityHashMap<>();
+    private final PropertyRegistry properties;
+    private RuleCache cache;
+
+    //The tree being checked
+    private Resolver resolver;
+    private SourcePositions positions;
+    private ArrayList<ASTNode> items;
+    //Per top level item of a parallel check: the global frame at a rule, the errors and the cache entry
+    private ExpressionType[][] globalScopes;
+    private ErrorTable[] itemErrors;
+    private RuleCache.Entry[] itemEntries;
+
+    //While a rule is checked for the cache: the global frame at the rule and the globals it read
+    private ExpressionType[] globalScope;
+    private HashMap<String, ExpressionType> dependencies;
+
+    public Checker(){
+        this(PropertyRegistry.getDefault());
+    }
+
+    /**
+     * @param properties the properties to check the declarations against, other properties are not checked
+     */
+    public Checker(PropertyRegistry properties){
+        this.properties = properties;
+    }
+
+    /**
+     * Keeps the result of every rule in cache, and takes the results of rules that did not change
+     * from it instead of checking them again. Use one cache per document.
+     * @param cache the cache to use, or null to check every rule
+     */
+    public void setCache(RuleCache cache){
+        this.cache = cache;
+    }
+
+    /**
+     * Checks ast and gives it a new ErrorTable with the errors found, the nodes are not changed.
+     */
     public void check(AST ast){
-        variableTypes = new HANLinkedList<>();
-        Stylesheet stylesheet = ast.root;
-
-        addScope(1);
-        for(ASTNode child: stylesheet.body){
-            if(child instanceof Stylerule){
-                checkStyleRule((Stylerule)child);
-            } else if (child instanceof VariableAssignment){
-                addVariable(1, (VariableAssignment)child);
+        check(ast, null);
+    }
+
+    /**
+     * Checks ast like check(AST), but checks the stylerules on pool at the same time. A rule only reads
+     * the global variables assigned before it and its own scopes, so every rule gets a snapshot of the
+     * global frame. The errors are the same, and in the same order, as those of a sequential check.
+     * @param pool the pool to check the rules on, or null to check them one after the other
+     */
+    public void check(AST ast, ForkJoinPool pool){
+        resolver = new Resolver();
+        resolver.resolve(ast);
+        variableTypes = new ExpressionType[resolver.getGlobalCount()];
+        operationTypes = new IdentityHashMap<>();
+        assignedTypes = new IdentityHashMap<>();
+        positions = ast.getSourcePositions();
+        items = ast.root.body;
+        int size = items.size();
+        itemEntries = cache == null ? null : new RuleCache.Entry[size];
+        if (cache != null){
+            cache.begin(properties);
+        }
+
+        if (pool == null){
+            errors = new ErrorTable(positions);
+            for (int i = 0; i < size; i++){
+                ASTNode child = items.get(i);
+                if(child instanceof Stylerule){
+                    checkRule(i);
+                } else if (child instanceof VariableAssignment){
+                    addVariable((VariableAssignment)child);
+                }
+            }
+        } else {
+            //The globals are typed first, the errors of every item go to its own table to keep them in order
+            globalScopes = new ExpressionType[size][];
+            itemErrors = new ErrorTable[size];
+            boolean snapshotTaken = false;
+            for (int i = 0; i < size; i++){
+                ASTNode child = items.get(i);
+                if (child instanceof Stylerule){
+                    globalScopes[i] = variableTypes;
+                    snapshotTaken = true;
+                } else if (child instanceof VariableAssignment){
+                    //Copy on write, so the snapshots of earlier rules stay as they were
+                    if (snapshotTaken){
+                        variableTypes = variableTypes.clone();
+                        snapshotTaken = false;
+                    }
+                    errors = itemErrors[i] = new ErrorTable(positions);
+                    addVariable((VariableAssignment) child);
+                }
+            }
+            pool.invoke(new RuleCheck(0, size));
+
+            errors = new ErrorTable(positions);
+            for (ErrorTable table : itemErrors){
+                if (table != null){
+                    errors.addAll(table);
+                }
+            }
+            globalScopes = null;
+            itemErrors = null;
+        }
+        ast.setErrorTable(errors);
+        if (cache != null){
+            updateCache();
+        }
+        items = null;
+        itemEntries = null;
+    }
+
+    //Checks the rules between from and to, each with its own snapshot of the globals and its own errors
+    private class RuleCheck extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        RuleCheck(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from > PARALLEL_THRESHOLD){
+                int middle = (from + to) >>> 1;
+                invokeAll(new RuleCheck(from, middle), new RuleCheck(middle, to));
+                return;
+            }
+            Checker checker = new Checker(properties);
+            checker.cache = cache;
+            checker.resolver = resolver;
+            checker.positions = positions;
+            checker.items = items;
+            checker.itemEntries = itemEntries;
+            checker.operationTypes = new IdentityHashMap<>();
+            for (int i = from; i < to; i++){
+                if (items.get(i) instanceof Stylerule){
+                    checker.variableTypes = globalScopes[i];
+                    checker.errors = itemErrors[i] = new ErrorTable(positions);
+                    checker.checkRule(i);
+                }
+            }
+        }
+    }
+
+    //Checks the rule at index with the global frame in variableTypes, or replays its result from the cache
+    private void checkRule(int index){
+        Stylerule rule = (Stylerule) items.get(index);
+        if (cache == null){
+            checkStyleRule(rule);
+            return;
+        }
+        RuleCache.Entry entry = cache.get(rule);
+        if (entry != null && entry.isValid(rule, variableTypes, resolver)){
+            //Reported again, so the positions follow the edits before the rule
+            for (SemanticError error : entry.errors){
+                errors.report(error.node, error.code, error.description);
             }
+            itemEntries[index] = entry;
+            return;
+        }
+        ErrorTable outerErrors = errors;
+        errors = new ErrorTable(positions);
+        globalScope = variableTypes;
+        dependencies = new HashMap<>();
+        checkStyleRule(rule);
+        itemEntries[index] = new RuleCache.Entry(rule.structuralHash(), dependencies, errors.getReportedErrors());
+        dependencies = null;
+        globalScope = null;
+        outerErrors.addAll(errors);
+        errors = outerErrors;
+    }
+
+    private void updateCache(){
+        IdentityHashMap<Stylerule, RuleCache.Entry> entries = new IdentityHashMap<>();
+        int checkedRules = 0;
+        int reusedRules = 0;
+        for (int i = 0; i < items.size(); i++){
+            if (itemEntries[i] != null){
+                Stylerule rule = (Stylerule) items.get(i);
+                if (cache.get(rule) == itemEntries[i]){
+                    reusedRules++;
+                } else {
+                    checkedRules++;
+                }
+                entries.put(rule, itemEntries[i]);
+            }
+        }
+        cache.update(entries, checkedRules, reusedRules);
+    }
+
+    /**
+     * @return the assignments of the last checked AST whose variable nothing reads, in document order,
+     * see Resolver.getUnusedVariables
+     */
+    public ArrayList<VariableAssignment> getUnusedVariables(){
+        return resolver == null ? new ArrayList<>() : resolver.getUnusedVariables();
+    }
+
+    /**
+     * @return the type the last check gave the value of a global assignment, null when the value has no
+     * type or assignment is not a top level item of the last checked AST
+     */
+    public ExpressionType getAssignedType(VariableAssignment assignment){
+        return assignedTypes.get(assignment);
+    }
+
+    /**
+     * @return the type of a literal, null for an expression that is no literal
+     */
+    public static ExpressionType getLiteralType(Expression expr){
+        if(expr instanceof BoolLiteral){
+            return ExpressionType.BOOL;
+        } else if (expr instanceof ColorLiteral){
+            return ExpressionType.COLOR;
+        } else if (expr instanceof PercentageLiteral){
+            return ExpressionType.PERCENTAGE;
+        } else if (expr instanceof PixelLiteral){
+            return ExpressionType.PIXEL;
+        } else if (expr instanceof ScalarLiteral) {
+            return ExpressionType.SCALAR;
         }
-        removeScope(1);
+        return null;
+    }
+
+    /**
+     * Converts ast to its object form with toAST and checks that, because the compact form has no room
+     * for errors. This is a conversion of the whole tree, it allocates every node just like parsing to an AST.
+     * @return the semantic errors found
+     */
+    public ArrayList<SemanticError> checkConverted(CompactAST ast){
+        AST tree = ast.toAST();
+        check(tree);
+        return tree.getErrors();
     }
 
     private void checkStyleRule(Stylerule stylerule){
-        int scope = 2;
-        addScope(scope);
+        localTypes = resolver.newLocalFrame(stylerule, variableTypes);
         for (ASTNode childOfStyleRule: stylerule.body){
-            checkStyleRuleChildren(scope, childOfStyleRule);
+            checkStyleRuleChildren(childOfStyleRule);
         }
-        removeScope(scope);
+        localTypes = null;
     }
 
-    private void checkStyleRuleChildren(int scope, ASTNode childOfStyleRule){
+    private void checkStyleRuleChildren(ASTNode childOfStyleRule){
         if (childOfStyleRule instanceof Declaration){
             checkDecleration((Declaration) childOfStyleRule);
         }
         if (childOfStyleRule instanceof VariableAssignment){
-            addVariable(scope, (VariableAssignment) childOfStyleRule);
+            addVariable((VariableAssignment) childOfStyleRule);
         }
         if (childOfStyleRule instanceof IfClause){
-            addScope(scope + 1);
+            ExpressionType[] outerScope = addScope();
             checkIfClause((IfClause) childOfStyleRule);
-            for (ASTNode childOfIfClause: childOfStyleRule.getChildren()){
-                checkStyleRuleChildren(scope + 1, childOfIfClause);
+            for (int i = 0; i < childOfStyleRule.childCount(); i++){
+                checkStyleRuleChildren(childOfStyleRule.childAt(i));
             }
-            removeScope(scope + 1);
+            removeScope(outerScope);
         }
 
         if (childOfStyleRule instanceof ElseClause){
-            addScope(scope + 1);
-            for (ASTNode childOfElseClause: childOfStyleRule.getChildren()){
-                checkStyleRuleChildren(scope + 1, childOfElseClause);
+            ExpressionType[] outerScope = addScope();
+            for (int i = 0; i < childOfStyleRule.childCount(); i++){
+                checkStyleRuleChildren(childOfStyleRule.childAt(i));
             }
-            removeScope(scope + 1);
+            removeScope(outerScope);
         }
         if (childOfStyleRule instanceof Operation){
-            checkOperation((Operation) childOfStyleRule, getExpressionType(((Operation) childOfStyleRule).lhs), getExpressionType(((Operation) childOfStyleRule).rhs));
+            getOperationType((Operation) childOfStyleRule);
         }
     }
 
     private void checkDecleration(Declaration declaration){
-        ArrayList<ASTNode> children = declaration.getChildren();
-        PropertyName property = (PropertyName) children.get(0);
-        ExpressionType expressionType = getExpressionType((Expression) children.get(1));
+        PropertyName property = (PropertyName) declaration.childAt(0);
+        ExpressionType expressionType = getExpressionType((Expression) declaration.childAt(1));
+
+        int index = properties.indexOf(property.name);
+        if (index != -1 && !properties.allows(index, expressionType)){
+            ExpressionType[] allowed = properties.getAllowedTypes(index);
+            errors.report(declaration, getErrorCode(allowed), "At property " + property.name + " - Value must be " + describe(allowed));
+        }
+    }
+
+    private ErrorCode getErrorCode(ExpressionType[] allowed){
+        if (allowed.length == 1 && allowed[0] == ExpressionType.COLOR){
+            return ErrorCode.COLOR_EXPECTED;
+        }
+        if (allowed.length == 2 && Arrays.asList(allowed).containsAll(Arrays.asList(ExpressionType.PERCENTAGE, ExpressionType.PIXEL))){
+            return ErrorCode.SIZE_EXPECTED;
+        }
+        return ErrorCode.TYPE_NOT_ALLOWED;
+    }
 
-        if (property.name.equals("color") || property.name.equals("background-color")){
-            checkColorDeclaration(declaration, expressionType);
-        } else if (property.name.equals("width") || property.name.equals("height")){
-            checkPercentageOrPixelDeclaration(declaration, expressionType);
+    //"a color", "either a percentage or pixel", "one of percentage, pixel or scalar"
+    private String describe(ExpressionType[] allowed){
+        StringBuilder description = new StringBuilder(allowed.length == 1 ? "a " : allowed.length == 2 ? "either a " : "one of ");
+        for (int i = 0; i < allowed.length; i++){
+            if (i > 0){
+                description.append(i == allowed.length - 1 ? " or " : ", ");
+            }
+            description.append(allowed[i] == ExpressionType.BOOL ? "boolean" : allowed[i].name().toLowerCase());
         }
+        return description.toString();
     }
 
     private void checkIfClause(IfClause ifClause){
         if (getExpressionType(ifClause.conditionalExpression) != ExpressionType.BOOL){
-            ifClause.setError("At if clause " + ifClause.getConditionalExpression().getNodeLabel() + " - The condition must be a boolean");
+            errors.report(ifClause, ErrorCode.CONDITION_NOT_BOOLEAN, "At if clause " + ifClause.getConditionalExpression().getNodeLabel() + " - The condition must be a boolean");
         }
     }
 
     private void checkOperation(Operation operation, ExpressionType leftSideExpressionType, ExpressionType rightSideExpressionType) {
         if (operation instanceof MultiplyOperation){
             if (leftSideExpressionType != ExpressionType.SCALAR && rightSideExpressionType != ExpressionType.SCALAR){
-                operation.setError("At operation " + operation.getNodeLabel() + " - Only scalar values can be used in a Multiply operation");
+                errors.report(operation, ErrorCode.MULTIPLY_WITHOUT_SCALAR, "At operation " + operation.getNodeLabel() + " - Only scalar values can be used in a Multiply operation");
             }
         }
         if (operation instanceof AddOperation || operation instanceof SubtractOperation){
             if (rightSideExpressionType == ExpressionType.SCALAR && leftSideExpressionType == ExpressionType.SCALAR){
-                operation.setError("At operation " + operation.getNodeLabel() + " - Adding or Subtracting using 2 scalar values is not allowed");
+                errors.report(operation, ErrorCode.ADD_OR_SUBTRACT_SCALARS, "At operation " + operation.getNodeLabel() + " - Adding or Subtracting using 2 scalar values is not allowed");
             } else if (rightSideExpressionType != leftSideExpressionType){
-                operation.setError("At operation " + operation.getNodeLabel() + " - Values of add or subtract operations must be of the same type");
+                errors.report(operation, ErrorCode.OPERAND_TYPES_DIFFER, "At operation " + operation.getNodeLabel() + " - Values of add or subtract operations must be of the same type");
             }
         }
         if (leftSideExpressionType == ExpressionType.COLOR){
-            operation.setError("At operation " + operation.getNodeLabel() + " - Colors cannot be used in operations");
-        }
-    }
-
-    private void checkColorDeclaration(Declaration declaration, ExpressionType expressionType){
-        if (expressionType != ExpressionType.COLOR){
-            declaration.setError("At property " + declaration.property.name + " - Value must be a color");
-        }
-    }
-
-    private void checkPercentageOrPixelDeclaration(Declaration declaration, ExpressionType expressionType){
-        if (expressionType != ExpressionType.PERCENTAGE && expressionType != ExpressionType.PIXEL){
-            declaration.setError("At property " + declaration.property.name + " - Value must be either a percentage or pixel");
+            errors.report(operation, ErrorCode.COLOR_IN_OPERATION, "At operation " + operation.getNodeLabel() + " - Colors cannot be used in operations");
         }
     }
 
     private ExpressionType getExpressionType(Expression expr){
-        ExpressionType type = null;
-        if(expr instanceof BoolLiteral){
-            type = ExpressionType.BOOL;
-        } else if (expr instanceof ColorLiteral){
-            type = ExpressionType.COLOR;
-        } else if (expr instanceof PercentageLiteral){
-            type = ExpressionType.PERCENTAGE;
-        } else if (expr instanceof PixelLiteral){
-            type = ExpressionType.PIXEL;
-        } else if (expr instanceof ScalarLiteral) {
-            type = ExpressionType.SCALAR;
-        } else if (expr instanceof VariableReference){
+        if (expr instanceof VariableReference){
             return getVariableType((VariableReference) expr);
         } else if (expr instanceof Operation){
             return getOperationType((Operation) expr);
         }
-        return type;
+        return getLiteralType(expr);
     }
 
     private ExpressionType getVariableType(VariableReference var){
-        for (int i = variableTypes.getSize(); i >= 1; i--) {
-            HashMap<String, ExpressionType> hashMap = variableTypes.get(i);
-            if (hashMap.containsKey(var.name)) {
-                return hashMap.get(var.name);
-            }
+        if (dependencies != null && !dependencies.containsKey(var.name)){
+            int globalSlot = resolver.getGlobalSlot(var.name);
+            dependencies.put(var.name, globalSlot >= 0 && globalSlot < globalScope.length ? globalScope[globalSlot] : null);
+        }
+        int slot = resolver.getSlot(var);
+        int globalCount = resolver.getGlobalCount();
+        ExpressionType type = null;
+        if (slot >= 0 && slot < globalCount){
+            type = slot < variableTypes.length ? variableTypes[slot] : null;
+        } else if (slot >= globalCount && localTypes != null && slot - globalCount < localTypes.length){
+            type = localTypes[slot - globalCount];
         }
-        var.setError("At variable " + var.name + " - Variable is not defined");
+        if (type != null) {
+            return type == ExpressionType.UNDEFINED ? null : type;
+        }
+        errors.report(var, ErrorCode.UNDEFINED_VARIABLE, "At variable " + var.name + " - Variable is not defined");
         return null;
     }
 
     private ExpressionType getOperationType(Operation op){
-        checkOperation(op, getExpressionType(op.lhs), getExpressionType(op.rhs));
-
+        if (operationTypes.containsKey(op)){
+            return operationTypes.get(op);
+        }
+        //Each side is typed once, typing them again per level doubled the work for every level of a chain
         ExpressionType leftType = getExpressionType(op.lhs);
         ExpressionType rightType = getExpressionType(op.rhs);
+        checkOperation(op, leftType, rightType);
 
-        if (op instanceof MultiplyOperation){
-            if (leftType == ExpressionType.SCALAR){
-                return rightType;
-            } else {
-                return leftType;
-            }
+        ExpressionType type = leftType;
+        if (op instanceof MultiplyOperation && leftType == ExpressionType.SCALAR){
+            type = rightType;
         }
-
-        return leftType;
+        operationTypes.put(op, type);
+        return type;
     }
 
-    private void addScope(int depth){
-        variableTypes.insert(depth, new HashMap<>());
+    //A scope starts as a copy of the local frame around it, so its assignments are gone when it is removed.
+    //The globals are not copied, a rule does not assign them
+    private ExpressionType[] addScope(){
+        ExpressionType[] outerScope = localTypes;
+        localTypes = outerScope.clone();
+        return outerScope;
     }
 
-    private void removeScope(int depth){
-        variableTypes.delete(depth);
+    private void removeScope(ExpressionType[] outerScope){
+        localTypes = outerScope;
     }
 
-    private void addVariable(int depth, VariableAssignment variableAssignment){
-        variableTypes.get(depth).put(variableAssignment.name.name, getExpressionType(variableAssignment.expression));
+    //Outside a rule the slot is global, inside one it is local
+    private void addVariable(VariableAssignment variableAssignment){
+        ExpressionType type = getExpressionType(variableAssignment.expression);
+        int slot = resolver.getSlot(variableAssignment.name);
+        if (localTypes == null){
+            assignedTypes.put(variableAssignment, type);
+        }
+        ExpressionType[] frame = localTypes == null ? variableTypes : localTypes;
+        int index = localTypes == null ? slot : slot - resolver.getGlobalCount();
+        frame[index] = type == null ? ExpressionType.UNDEFINED : type;
     }
 }
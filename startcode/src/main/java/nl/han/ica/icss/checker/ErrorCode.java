@@ -0,0 +1,16 @@
+package nl.han.ica.icss.checker;
+
+/**
+ * The kinds of semantic errors the Checker reports.
+ */
+public enum ErrorCode {
+    CONDITION_NOT_BOOLEAN,
+    MULTIPLY_WITHOUT_SCALAR,
+    ADD_OR_SUBTRACT_SCALARS,
+    OPERAND_TYPES_DIFFER,
+    COLOR_IN_OPERATION,
+    COLOR_EXPECTED,
+    SIZE_EXPECTED,
+    UNDEFINED_VARIABLE,
+    TYPE_NOT_ALLOWED
+}
@@ -0,0 +1,101 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.SourcePositions;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+
+/**
+ * The semantic errors of an AST, kept next to the tree instead of on its nodes. The Checker
+ * reports into it while it walks, so getting the errors afterwards costs as much as there are
+ * errors, not as much as there are nodes, and checking leaves the nodes themselves untouched.
+ *
+ * A node has at most one error: reporting a node again replaces its error, as setting the
+ * error field on the node used to do.
+ */
+public class ErrorTable {
+
+    private final SourcePositions positions;
+    private final ArrayList<SemanticError> errors = new ArrayList<>();
+    //Small at first, a parallel check makes one table per rule and most rules have no errors
+    private final IdentityHashMap<ASTNode, Integer> indexes = new IdentityHashMap<>(4);
+
+    public ErrorTable() {
+        this(new SourcePositions(0));
+    }
+
+    /**
+     * @param positions the source positions of the checked AST, used to place the errors
+     */
+    public ErrorTable(SourcePositions positions) {
+        this.positions = positions;
+    }
+
+    public void report(ASTNode node, ErrorCode code, String description) {
+        SemanticError error = new SemanticError(node, code, description);
+        error.offset = positions.getOffset(node);
+        error.line = positions.getLine(node);
+        error.column = positions.getColumn(node);
+        add(error);
+    }
+
+    /**
+     * Reports the errors of other after the errors of this table, in the order they were reported to other.
+     */
+    public void addAll(ErrorTable other) {
+        for (SemanticError error : other.errors) {
+            add(error);
+        }
+    }
+
+    //The errors in the order they were reported
+    ArrayList<SemanticError> getReportedErrors() {
+        return errors;
+    }
+
+    private void add(SemanticError error) {
+        Integer index = indexes.get(error.node);
+        if (index != null) {
+            errors.set(index, error);
+        } else {
+            indexes.put(error.node, errors.size());
+            errors.add(error);
+        }
+    }
+
+    public boolean hasError(ASTNode node) {
+        return indexes.containsKey(node);
+    }
+
+    /**
+     * @return the error of node, or null when it has none
+     */
+    public SemanticError getError(ASTNode node) {
+        Integer index = indexes.get(node);
+        return index == null ? null : errors.get(index);
+    }
+
+    public int size() {
+        return errors.size();
+    }
+
+    public boolean isEmpty() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * Returns the errors sorted by the source offset of their node. That is not the order the
+     * original tree walk listed them in, which put an operation before the error of its left operand
+     * (the position of an operation is its operator). The checker reports in a different order when it
+     * checks in parallel or reuses cached rules, and sorting gives the same list in every mode.
+     * @return the errors in source order, errors without a known position last in the order they were reported
+     */
+    public ArrayList<SemanticError> getErrors() {
+        ArrayList<SemanticError> sorted = new ArrayList<>(errors);
+        //The sort is stable, so errors at the same offset keep their report order
+        sorted.sort(Comparator.comparingInt(error -> error.offset == SourcePositions.UNKNOWN ? Integer.MAX_VALUE : error.offset));
+        return sorted;
+    }
+}
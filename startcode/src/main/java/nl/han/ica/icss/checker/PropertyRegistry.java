@@ -0,0 +1,207 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.ast.types.ExpressionType;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The CSS properties the Checker validates and the value types each of them accepts, read from
+ * a resource file (see properties.txt for the format). The default registry checks many more
+ * properties than color, background-color, width and height, which were the only ones checked
+ * before, so a value such as the scalar in margin: 0 is now an error. Pass a smaller registry
+ * to the Checker to check fewer properties.
+ *
+ * Names are found through a perfect hash built when the registry is loaded: the hash of a name
+ * picks a bucket, the seed of that bucket picks the one slot the name can be in, so a lookup
+ * hashes twice and compares one name, however many properties there are.
+ */
+public class PropertyRegistry {
+
+    public static final String RESOURCE = "properties.txt";
+
+    //Gives up building the hash after this many seeds for one bucket, only names with equal hash codes get there
+    private static final int MAX_SEED = 1 << 20;
+
+    private final String[] names;
+    private final ExpressionType[][] allowedTypes;
+    //Bit i is set when the ExpressionType with ordinal i is allowed
+    private final int[] allowedMasks;
+
+    //The index of the name in each slot, -1 for an empty slot
+    private final int[] slots;
+    private final int[] seeds;
+    private final int slotMask;
+    private final int bucketMask;
+
+    private static PropertyRegistry defaultRegistry;
+
+    private PropertyRegistry(ArrayList<String> names, ArrayList<ExpressionType[]> allowedTypes) {
+        int size = names.size();
+        this.names = names.toArray(new String[0]);
+        this.allowedTypes = allowedTypes.toArray(new ExpressionType[0][]);
+        allowedMasks = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (ExpressionType type : this.allowedTypes[i]) {
+                allowedMasks[i] |= 1 << type.ordinal();
+            }
+        }
+
+        //Half filled slots and about two names per bucket keep the search for seeds short
+        slotMask = powerOfTwo(2 * size) - 1;
+        bucketMask = powerOfTwo(Math.max(1, size / 2)) - 1;
+        slots = new int[slotMask + 1];
+        seeds = new int[bucketMask + 1];
+        Arrays.fill(slots, -1);
+
+        ArrayList<ArrayList<Integer>> buckets = new ArrayList<>();
+        for (int b = 0; b <= bucketMask; b++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            buckets.get(mix(this.names[i].hashCode()) & bucketMask).add(i);
+        }
+        //The largest buckets are the hardest to place, so they go first while most slots are free
+        Integer[] order = new Integer[buckets.size()];
+        for (int b = 0; b < order.length; b++) {
+            order[b] = b;
+        }
+        Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+        for (int bucket : order) {
+            place(bucket, buckets.get(bucket));
+        }
+    }
+
+    private void place(int bucket, ArrayList<Integer> members) {
+        int[] taken = new int[members.size()];
+        for (int seed = 0; seed < MAX_SEED; seed++) {
+            boolean fits = true;
+            for (int m = 0; m < members.size() && fits; m++) {
+                int slot = slot(names[members.get(m)].hashCode(), seed);
+                fits = slots[slot] == -1;
+                for (int n = 0; n < m && fits; n++) {
+                    fits = taken[n] != slot;
+                }
+                taken[m] = slot;
+            }
+            if (fits) {
+                for (int m = 0; m < members.size(); m++) {
+                    slots[taken[m]] = members.get(m);
+                }
+                seeds[bucket] = seed;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Cannot build a perfect hash for the properties " + members);
+    }
+
+    /**
+     * @return the registry of the properties.txt resource
+     */
+    public static synchronized PropertyRegistry getDefault() {
+        if (defaultRegistry == null) {
+            InputStream in = PropertyRegistry.class.getClassLoader().getResourceAsStream(RESOURCE);
+            if (in == null) {
+                throw new IllegalStateException("Resource " + RESOURCE + " not found");
+            }
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                defaultRegistry = load(reader);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read " + RESOURCE + ": " + e.getMessage(), e);
+            }
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * Reads a registry with one property per line, written as "name: type type ...".
+     * Empty lines and lines starting with # are skipped.
+     * @throws IOException when reading fails or a line is not a valid property
+     */
+    public static PropertyRegistry load(Reader reader) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<ExpressionType[]> allowedTypes = new ArrayList<>();
+        HashMap<String, Integer> lines = new HashMap<>();
+        BufferedReader in = new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String[] types = colon < 0 ? new String[0] : line.substring(colon + 1).trim().split("\\s+");
+            if (colon <= 0 || types[0].isEmpty()) {
+                throw new IOException("Line " + lineNumber + ": expected \"name: type ...\"");
+            }
+            String name = line.substring(0, colon).trim();
+            if (lines.containsKey(name)) {
+                throw new IOException("Line " + lineNumber + ": " + name + " is already on line " + lines.get(name));
+            }
+            lines.put(name, lineNumber);
+            ExpressionType[] allowed = new ExpressionType[types.length];
+            for (int i = 0; i < types.length; i++) {
+                try {
+                    allowed[i] = ExpressionType.valueOf(types[i].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Line " + lineNumber + ": unknown type " + types[i]);
+                }
+            }
+            names.add(name);
+            allowedTypes.add(allowed);
+        }
+        return new PropertyRegistry(names, allowedTypes);
+    }
+
+    /**
+     * @return the index of the property called name, or -1 when the registry does not know it
+     */
+    public int indexOf(String name) {
+        int hash = name.hashCode();
+        int index = slots[slot(hash, seeds[mix(hash) & bucketMask])];
+        return index != -1 && name.equals(names[index]) ? index : -1;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return the types the property at index accepts, in the order of the resource
+     */
+    public ExpressionType[] getAllowedTypes(int index) {
+        return allowedTypes[index].clone();
+    }
+
+    /**
+     * @return whether the property at index accepts values of type, never for a null type
+     */
+    public boolean allows(int index, ExpressionType type) {
+        return type != null && (allowedMasks[index] & (1 << type.ordinal())) != 0;
+    }
+
+    private int slot(int hash, int seed) {
+        return mix(hash ^ seed * 0x9E3779B9) & slotMask;
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int powerOfTwo(int atLeast) {
+        return atLeast <= 1 ? 1 : Integer.highestOneBit(atLeast - 1) << 1;
+    }
+}
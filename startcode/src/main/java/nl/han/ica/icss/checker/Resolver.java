@@ -0,0 +1,339 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.BoolLiteral;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Binds every variable name to a slot in a flat array frame, so the Checker and the Evaluator
+ * look variables up by index instead of searching a list of scopes by name.
+ *
+ * Global variables get the slots 0 to getGlobalCount() - 1 of the global frame. Every variable a
+ * rule assigns, also one with the name of a global, gets a slot after those, numbered per rule,
+ * in a small local frame of the rule (see newLocalFrame). So a rule never writes the global frame
+ * and rules can share it. A name has the same slot everywhere in a rule, also inside if and else
+ * clauses and before the rule assigns it: the local frame starts with the global values of the
+ * names it shadows. A walker that wants block scopes copies the local frame when it enters a
+ * clause and drops the copy when it leaves, which hides the assignments of the clause from what
+ * follows it. References to a name that is never assigned get slot -1.
+ *
+ * The slots are kept in this Resolver and not in the nodes, because the nodes can be shared by
+ * several trees, such as a tree and its transformed copy, which may bind a name to other slots.
+ * A Resolver is only read once resolve returns, so threads can share it.
+ *
+ * While binding it counts how often each variable is read, which gives the assignments that
+ * nothing uses (see getUnusedVariables). The reads are counted with the scopes of the Evaluator:
+ * an assignment in an if or else clause stays in effect for the rest of the rule. A read of a
+ * name the rule may have assigned counts for the assignments of the rule, and also for the global
+ * with that name unless every way to the read assigns it. A clause whose condition is TRUE or
+ * FALSE only counts the reads of the branch that runs.
+ */
+public class Resolver {
+
+    private final HashMap<String, Integer> globals = new HashMap<>();
+    //The slots of the names the current rule assigns, also those of globals
+    private final HashMap<String, Integer> locals = new HashMap<>();
+    //Per rule the size of its local frame, followed by pairs of a local slot and the global slot it shadows
+    private final IdentityHashMap<Stylerule, int[]> frames = new IdentityHashMap<>();
+    //The slot of every VariableReference of the last resolved AST
+    private final IdentityHashMap<VariableReference, Integer> slots = new IdentityHashMap<>();
+    //Per global slot the number of top level assignments to it
+    private int[] globalAssignments = new int[0];
+    //The number of reads per global slot in rules, and per local slot of the current rule in that rule
+    private int[] globalReads = new int[0];
+    private int[] localReads = new int[0];
+    //Per local slot whether an assignment of the rule to it may be in effect, and whether one surely is
+    private boolean[] assigned = new boolean[0];
+    private boolean[] definite = new boolean[0];
+    //Whether reads are counted, they are not in the assignments of globals
+    private boolean counting = false;
+    private final ArrayList<VariableAssignment> unused = new ArrayList<>();
+
+    /**
+     * Binds every VariableReference in ast to a slot, including the names of assignments.
+     * The slots of an earlier resolved AST are forgotten.
+     */
+    public void resolve(AST ast) {
+        globals.clear();
+        slots.clear();
+        frames.clear();
+        unused.clear();
+        ArrayList<VariableAssignment> globalAssignmentNodes = new ArrayList<>();
+        for (ASTNode child : ast.root.body) {
+            if (child instanceof VariableAssignment) {
+                globals.putIfAbsent(((VariableAssignment) child).name.name, globals.size());
+                globalAssignmentNodes.add((VariableAssignment) child);
+            }
+        }
+        globalAssignments = new int[globals.size()];
+        for (VariableAssignment assignment : globalAssignmentNodes) {
+            globalAssignments[globals.get(assignment.name.name)]++;
+        }
+        globalReads = new int[globals.size()];
+        //The unused locals of every rule, after the index of the rule in the stylesheet
+        HashMap<Integer, ArrayList<VariableAssignment>> unusedLocals = new HashMap<>();
+        for (int i = 0; i < ast.root.body.size(); i++) {
+            ASTNode child = ast.root.body.get(i);
+            locals.clear();
+            if (child instanceof Stylerule) {
+                collectLocals(child);
+                frames.put((Stylerule) child, frameOf());
+                localReads = new int[locals.size()];
+                assigned = new boolean[locals.size()];
+                definite = new boolean[locals.size()];
+                counting = true;
+                bind(child);
+                counting = false;
+                ArrayList<VariableAssignment> ruleUnused = new ArrayList<>();
+                collectUnusedLocals(child, ruleUnused);
+                if (!ruleUnused.isEmpty()) {
+                    unusedLocals.put(i, ruleUnused);
+                }
+            } else {
+                //The reads of global assignments only count when the global itself is used, see below
+                bind(child);
+            }
+        }
+        locals.clear();
+
+        //From the last global up, a global is used when a rule reads it or a used global is computed from it
+        boolean[] used = new boolean[globals.size()];
+        for (int i = globalAssignmentNodes.size() - 1; i >= 0; i--) {
+            VariableAssignment assignment = globalAssignmentNodes.get(i);
+            int slot = getSlot(assignment.name);
+            if (used[slot] || globalReads[slot] > 0) {
+                used[slot] = true;
+                markUsed(assignment.expression, used);
+            }
+        }
+        for (int i = 0; i < ast.root.body.size(); i++) {
+            ASTNode child = ast.root.body.get(i);
+            if (child instanceof VariableAssignment && !used[getSlot(((VariableAssignment) child).name)]) {
+                unused.add((VariableAssignment) child);
+            } else if (unusedLocals.containsKey(i)) {
+                unused.addAll(unusedLocals.get(i));
+            }
+        }
+        globalReads = new int[0];
+        localReads = new int[0];
+        assigned = new boolean[0];
+        definite = new boolean[0];
+    }
+
+    /**
+     * @return the slot of reference in the last resolved AST, -1 when its name is never assigned
+     * or reference is not part of that AST
+     */
+    public int getSlot(VariableReference reference) {
+        Integer slot = slots.get(reference);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @return the number of slots of the global frame of the last resolved AST
+     */
+    public int getGlobalCount() {
+        return globals.size();
+    }
+
+    /**
+     * @return the slot of the global variable called name, or -1 when there is none
+     */
+    public int getGlobalSlot(String name) {
+        Integer slot = globals.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * A new local frame for rule: a slot for every variable rule assigns, where slot s of the
+     * resolver is index s - getGlobalCount(). The slots of names that shadow a global start with
+     * the value of the global in globalFrame, the others are null. This takes the time of the
+     * variables of rule only, the global frame is not copied.
+     * @param globalFrame the global frame at rule, it is only read
+     */
+    public <T> T[] newLocalFrame(Stylerule rule, T[] globalFrame) {
+        int[] frame = frames.get(rule);
+        T[] localFrame = Arrays.copyOf(globalFrame, frame == null ? 0 : frame[0]);
+        Arrays.fill(localFrame, null);
+        for (int i = 1; frame != null && i < frame.length; i += 2) {
+            int global = frame[i + 1];
+            localFrame[frame[i] - globals.size()] = global < globalFrame.length ? globalFrame[global] : null;
+        }
+        return localFrame;
+    }
+
+    /**
+     * @return how many top level assignments the stylesheet has for the global variable in slot
+     */
+    public int getAssignmentCount(int slot) {
+        return slot >= 0 && slot < globalAssignments.length ? globalAssignments[slot] : 0;
+    }
+
+    /**
+     * @return the assignments of the last resolved AST whose variable nothing reads, in document
+     * order. A global only read by the assignments of unused globals is unused as well.
+     */
+    public ArrayList<VariableAssignment> getUnusedVariables() {
+        return new ArrayList<>(unused);
+    }
+
+    private void collectLocals(ASTNode node) {
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child instanceof VariableAssignment) {
+                locals.putIfAbsent(((VariableAssignment) child).name.name, globals.size() + locals.size());
+            } else if (child instanceof IfClause || child instanceof ElseClause) {
+                collectLocals(child);
+            }
+        }
+    }
+
+    private void bind(ASTNode node) {
+        if (node instanceof VariableReference) {
+            VariableReference reference = (VariableReference) node;
+            int slot = slotOf(reference.name);
+            slots.put(reference, slot);
+            count(reference.name, slot);
+            return;
+        }
+        if (node instanceof VariableAssignment) {
+            //The name of an assignment is written, not read, and only after its expression is read
+            VariableAssignment assignment = (VariableAssignment) node;
+            slots.put(assignment.name, slotOf(assignment.name.name));
+            if (assignment.expression != null) {
+                bind(assignment.expression);
+            }
+            Integer local = locals.get(assignment.name.name);
+            if (counting && local != null) {
+                assigned[local - globals.size()] = true;
+                definite[local - globals.size()] = true;
+            }
+            return;
+        }
+        if (counting && node instanceof IfClause) {
+            bindIfClause((IfClause) node);
+            return;
+        }
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child != null) {
+                bind(child);
+            }
+        }
+    }
+
+    //Like the Evaluator, which runs one branch in the frame of the rule, so its assignments stay after the clause
+    private void bindIfClause(IfClause clause) {
+        if (clause.conditionalExpression != null) {
+            bind(clause.conditionalExpression);
+        }
+        Boolean condition = clause.conditionalExpression instanceof BoolLiteral
+                ? ((BoolLiteral) clause.conditionalExpression).value : null;
+        boolean[] outerAssigned = assigned;
+        boolean[] outerDefinite = definite;
+        bindBranch(clause.body, condition == null || condition, outerAssigned, outerDefinite);
+        boolean[] ifAssigned = assigned;
+        boolean[] ifDefinite = definite;
+        bindBranch(clause.elseClause == null ? new ArrayList<>() : clause.elseClause.body,
+                condition == null || !condition, outerAssigned, outerDefinite);
+        if (condition == null) {
+            //Either branch may have run
+            for (int i = 0; i < assigned.length; i++) {
+                assigned[i] |= ifAssigned[i];
+                definite[i] &= ifDefinite[i];
+            }
+        } else if (condition) {
+            assigned = ifAssigned;
+            definite = ifDefinite;
+        }
+    }
+
+    //Binds a branch from the state before its clause, the reads of a branch that never runs are not counted
+    private void bindBranch(ArrayList<ASTNode> branch, boolean runs, boolean[] outerAssigned, boolean[] outerDefinite) {
+        assigned = outerAssigned.clone();
+        definite = outerDefinite.clone();
+        boolean outerCounting = counting;
+        counting = runs;
+        for (ASTNode child : branch) {
+            bind(child);
+        }
+        counting = outerCounting;
+    }
+
+    //The frame of the current rule for frames
+    private int[] frameOf() {
+        int[] frame = new int[1];
+        frame[0] = locals.size();
+        for (String name : locals.keySet()) {
+            Integer global = globals.get(name);
+            if (global != null) {
+                frame = Arrays.copyOf(frame, frame.length + 2);
+                frame[frame.length - 2] = locals.get(name);
+                frame[frame.length - 1] = global;
+            }
+        }
+        return frame;
+    }
+
+    private int slotOf(String name) {
+        Integer slot = locals.get(name);
+        if (slot == null) {
+            slot = globals.get(name);
+        }
+        return slot == null ? -1 : slot;
+    }
+
+    //A read of a name the rule assigns counts for the rule once the rule may have assigned it, and for the global
+    //with that name until the rule surely assigned it, so an assignment that shadows a global does not make the
+    //global look used
+    private void count(String name, int slot) {
+        if (!counting || slot < 0) {
+            return;
+        }
+        if (slot < globals.size()) {
+            globalReads[slot]++;
+            return;
+        }
+        int local = slot - globals.size();
+        Integer global = globals.get(name);
+        if (global == null || assigned[local]) {
+            localReads[local]++;
+        }
+        if (global != null && !definite[local]) {
+            globalReads[global]++;
+        }
+    }
+
+    //The assignments in the rule node to variables the rule never reads, also those that shadow a global
+    private void collectUnusedLocals(ASTNode node, ArrayList<VariableAssignment> found) {
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child instanceof VariableAssignment) {
+                if (localReads[locals.get(((VariableAssignment) child).name.name) - globals.size()] == 0) {
+                    found.add((VariableAssignment) child);
+                }
+            } else if (child instanceof IfClause || child instanceof ElseClause) {
+                collectUnusedLocals(child, found);
+            }
+        }
+    }
+
+    private void markUsed(ASTNode node, boolean[] used) {
+        if (node instanceof VariableReference) {
+            int slot = getSlot((VariableReference) node);
+            if (slot >= 0 && slot < used.length) {
+                used[slot] = true;
+            }
+        }
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child != null) {
+                markUsed(child, used);
+            }
+        }
+    }
+}
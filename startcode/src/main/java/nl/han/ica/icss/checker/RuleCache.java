@@ -0,0 +1,100 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.ast.Stylerule;
+import nl.han.ica.icss.ast.types.ExpressionType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The results of the last check per stylerule, so a Checker that is given the cache only checks
+ * the rules that changed. A result is used again when the rule is the same instance with the
+ * same structural hash, and every global variable it reads has the same type as before.
+ * The IncrementalParser keeps the rules an edit does not touch, so after an edit usually one
+ * rule is checked again. After a full parse every rule is new and checked as usual.
+ */
+public class RuleCache {
+
+    private IdentityHashMap<Stylerule, Entry> entries = new IdentityHashMap<>();
+    private PropertyRegistry properties;
+    private int checkedRules = 0;
+    private int reusedRules = 0;
+
+    /**
+     * The result of checking one rule: its errors and the global types it was checked with.
+     */
+    static class Entry {
+        private final long hash;
+        //The names of the variables the rule reads and the type each one had globally, null when it was not global
+        private final String[] names;
+        private final ExpressionType[] globalTypes;
+        //The errors in the order they were reported
+        final ArrayList<SemanticError> errors;
+
+        Entry(long hash, HashMap<String, ExpressionType> dependencies, ArrayList<SemanticError> errors) {
+            this.hash = hash;
+            this.names = dependencies.keySet().toArray(new String[0]);
+            this.globalTypes = new ExpressionType[names.length];
+            for (int i = 0; i < names.length; i++) {
+                globalTypes[i] = dependencies.get(names[i]);
+            }
+            this.errors = errors;
+        }
+
+        /**
+         * @param globalScope the global frame at the rule
+         * @param resolver the resolver that bound the variables of the tree being checked
+         */
+        boolean isValid(Stylerule rule, ExpressionType[] globalScope, Resolver resolver) {
+            if (rule.structuralHash() != hash) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                int slot = resolver.getGlobalSlot(names[i]);
+                ExpressionType type = slot >= 0 && slot < globalScope.length ? globalScope[slot] : null;
+                if (type != globalTypes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of rules the last check checked
+     */
+    public int getCheckedRules() {
+        return checkedRules;
+    }
+
+    /**
+     * @return the number of rules the last check took from this cache
+     */
+    public int getReusedRules() {
+        return reusedRules;
+    }
+
+    public void clear() {
+        entries = new IdentityHashMap<>();
+    }
+
+    //Results found with other properties do not hold
+    void begin(PropertyRegistry properties) {
+        if (this.properties != properties) {
+            clear();
+            this.properties = properties;
+        }
+    }
+
+    Entry get(Stylerule rule) {
+        return entries.get(rule);
+    }
+
+    //Replaces the entries by those of the last check, which drops the rules that are gone
+    void update(IdentityHashMap<Stylerule, Entry> entries, int checkedRules, int reusedRules) {
+        this.entries = entries;
+        this.checkedRules = checkedRules;
+        this.reusedRules = reusedRules;
+    }
+}
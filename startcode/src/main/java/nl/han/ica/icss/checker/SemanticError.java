@@ -1,11 +1,27 @@
 package nl.han.ica.icss.checker;
 
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.SourcePositions;
+
 public class SemanticError {
 	public String description;
+	//What kind of error this is, null when unknown
+	public ErrorCode code;
+	//The node the error is about, null when unknown
+	public ASTNode node;
+	//Where node starts in the source, SourcePositions.UNKNOWN when unknown
+	public int offset = SourcePositions.UNKNOWN;
+	public int line = SourcePositions.UNKNOWN;
+	public int column = SourcePositions.UNKNOWN;
 
 	public SemanticError(String description) {
 		this.description = description;
 	}
+	public SemanticError(ASTNode node, ErrorCode code, String description) {
+		this.node = node;
+		this.code = code;
+		this.description = description;
+	}
 	public String toString() {
 		return "ERROR: " + description;
 	}
@@ -13,18 +13,100 @@ public class Generator {
 		return tree.toString();
 	}
 
+	/**
+	 * Generates the CSS of an evaluated compact AST straight from its arrays.
+	 */
+	public String generate(CompactAST ast) {
+		for(int rule = ast.getFirstChild(0); rule != CompactAST.NONE; rule = ast.getNextSibling(rule)) {
+			if(ast.getKind(rule) == CompactAST.STYLERULE){
+				generateStyleRule(ast, rule);
+			}
+		}
+		return tree.toString();
+	}
+
+	private void generateStyleRule(CompactAST ast, int rule) {
+		//The selectors come before the body, the block opens after the last of them
+		boolean blockOpened = false;
+		boolean firstSelector = true;
+		for(int child = ast.getFirstChild(rule); child != CompactAST.NONE; child = ast.getNextSibling(child)) {
+			int kind = ast.getKind(child);
+			if(!blockOpened && (kind == CompactAST.CLASS_SELECTOR || kind == CompactAST.ID_SELECTOR || kind == CompactAST.TAG_SELECTOR)){
+				tree.append(firstSelector ? "" : ", ").append(ast.getString(child));
+				firstSelector = false;
+				continue;
+			}
+			if(!blockOpened){
+				tree.append(" {\n");
+				blockOpened = true;
+			}
+			if(kind == CompactAST.DECLARATION){
+				generateDeclaration(ast, child);
+			}
+		}
+		if(!blockOpened){
+			tree.append(" {\n");
+		}
+		tree.append("}\n");
+	}
+
+	private void generateDeclaration(CompactAST ast, int declaration) {
+		int property = ast.getFirstChild(declaration);
+		tree.append(" ").append(ast.getString(property)).append(": ");
+		int expression = ast.getNextSibling(property);
+		if(expression == CompactAST.NONE){
+			return;
+		}
+		switch (ast.getKind(expression)) {
+			case CompactAST.PERCENTAGE_LITERAL:
+				tree.append(ast.getValue(expression)).append("%").append(";\n");
+				break;
+			case CompactAST.PIXEL_LITERAL:
+				tree.append(ast.getValue(expression)).append("px").append(";\n");
+				break;
+			case CompactAST.SCALAR_LITERAL:
+				tree.append(ast.getValue(expression)).append(";\n");
+				break;
+			case CompactAST.BOOL_LITERAL:
+				tree.append(ast.getValue(expression) != 0).append(";\n");
+				break;
+			case CompactAST.COLOR_LITERAL:
+				tree.append(ast.getString(expression)).append(";\n");
+				break;
+		}
+	}
+
+	/**
+	 * Generates the CSS of one evaluated rule.
+	 * @return the CSS of stylerule alone, it is also added to what this generator generated so far
+	 */
+	public String generate(Stylerule stylerule) {
+		int start = tree.length();
+		generateStyleRule(stylerule);
+		return tree.substring(start);
+	}
+
 	private void generateStyleRules(ASTNode astNode) {
-		for(ASTNode child : astNode.getChildren()) {
+		for(int i = 0; i < astNode.childCount(); i++) {
+			ASTNode child = astNode.childAt(i);
 			if(child instanceof Stylerule){
-				tree.append(((Stylerule) child).selectors.get(0)).append(" {\n");
-				generateDeclarations(child);
-				tree.append("}\n");
+				generateStyleRule((Stylerule) child);
 			}
 		}
 	}
 
+	private void generateStyleRule(Stylerule stylerule) {
+		for(int i = 0; i < stylerule.selectors.size(); i++) {
+			tree.append(i == 0 ? "" : ", ").append(stylerule.selectors.get(i));
+		}
+		tree.append(" {\n");
+		generateDeclarations(stylerule);
+		tree.append("}\n");
+	}
+
 	private void generateDeclarations(ASTNode astNode) {
-		for(ASTNode child : astNode.getChildren()) {
+		for(int i = 0; i < astNode.childCount(); i++) {
+			ASTNode child = astNode.childAt(i);
 			if(child instanceof Declaration){
 				tree.append(" ").append(((Declaration) child).property.name).append(": ");
 				generateLiteral(((Declaration) child).expression);
@@ -8,11 +8,14 @@ import javafx.scene.control.TreeView;
 import javafx.scene.layout.BorderPane;
 import nl.han.ica.icss.ast.AST;
 import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.checker.ErrorTable;
 
 public class ASTPane extends BorderPane {
 
     private TreeView<ASTNode> content;
     private Label title;
+    //The errors of the shown AST, null when it was not checked
+    private ErrorTable errors;
 
     public ASTPane () {
 		super();
@@ -30,7 +33,7 @@ public class ASTPane extends BorderPane {
                     setText("");
                 } else {
                     setText(item.getNodeLabel());
-                    if(item.hasError()) {
+                    if(errors != null && errors.hasError(item)) {
                         getStyleClass().add("error");
                     }
                 }
@@ -48,6 +51,7 @@ public class ASTPane extends BorderPane {
      * @param ast
      */
     public void update(AST ast) {
+        errors = ast.getErrorTable();
         content.setRoot(astNodeToTreeItem(ast.root));
     }
     private TreeItem<ASTNode> astNodeToTreeItem(ASTNode astNode) {
@@ -55,8 +59,8 @@ public class ASTPane extends BorderPane {
         TreeItem<ASTNode> tvNode = new TreeItem<ASTNode>(astNode);
         tvNode.setExpanded(true);
 
-        for(ASTNode child : astNode.getChildren()) {
-            tvNode.getChildren().add(astNodeToTreeItem(child));
+        for(int i = 0; i < astNode.childCount(); i++) {
+            tvNode.getChildren().add(astNodeToTreeItem(astNode.childAt(i)));
         }
         return tvNode;
     }
@@ -194,7 +194,7 @@ public class MainGui extends Application {
     private void parse() {
         clear();
         feedbackPane.addLine("Parsing...");
-        pipeline.parseString(inputPane.getText());
+        pipeline.parseIncremental(inputPane.getText());
         for(String e : pipeline.getErrors()) {
             feedbackPane.addLine(e);
         }
@@ -215,6 +215,9 @@ public class MainGui extends Application {
                 feedbackPane.addLine(e);
             }
         }
+        for (String w : pipeline.getWarnings()) {
+            feedbackPane.addLine(w);
+        }
         astPane.update(pipeline.getAST());
         updateToolbar();
     }
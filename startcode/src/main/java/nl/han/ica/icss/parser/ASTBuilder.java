@@ -0,0 +1,283 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.datastructures.HANStack;
+import nl.han.ica.datastructures.IHANStack;
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.*;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.ast.selectors.ClassSelector;
+import nl.han.ica.icss.ast.selectors.IdSelector;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+
+/**
+ * Builds the ICSS AST while the parser runs. Register it with ICSSParser.addParseListener
+ * and turn off setBuildParseTree, so the parse tree is never kept in memory.
+ *
+ * Because the parser does not link rule contexts together in that mode, every context
+ * only knows its own tokens. Literals and references are therefore collected on an operand
+ * stack and combined into operations when their term or expression is exited.
+ */
+public class ASTBuilder extends ICSSBaseListener {
+
+    //Accumulator attributes:
+    private AST ast;
+    //Use this to keep track of the parent nodes while the parser descends
+    private IHANStack<ASTNode> currentContainer;
+    //Factors that are not yet part of an operation
+    private ArrayList<Expression> operands;
+    //The size of operands when each open term or expression was entered
+    private IHANStack<Integer> operandStarts;
+    //Gives repeated names and colors one shared instance
+    private InternTable names;
+    //Receives the start of every node
+    private SourcePositions positions;
+
+    public ASTBuilder() {
+        this(new InternTable());
+    }
+
+    public ASTBuilder(InternTable names) {
+        this(names, new SourcePositions());
+    }
+
+    public ASTBuilder(InternTable names, SourcePositions positions) {
+        ast = new AST();
+        ast.setSourcePositions(positions);
+        currentContainer = new HANStack<>();
+        operands = new ArrayList<>();
+        operandStarts = new HANStack<>();
+        this.names = names;
+        this.positions = positions;
+    }
+
+    //Records where token starts as the position of node
+    private <T extends ASTNode> T at(T node, Token token) {
+        positions.record(node, token.getStartIndex(), token.getLine(), token.getCharPositionInLine());
+        return node;
+    }
+
+    public AST getAST() {
+        return ast;
+    }
+
+    private void enterNode(ASTNode node) {
+        currentContainer.peek().addChild(node);
+        currentContainer.push(node);
+    }
+
+    private void exitNode() {
+        currentContainer.pop();
+    }
+
+    private Expression popOperand() {
+        if (operands.isEmpty()) {
+            return null;
+        }
+        return operands.remove(operands.size() - 1);
+    }
+
+    @Override
+    public void enterStylesheet(ICSSParser.StylesheetContext ctx) {
+        Stylesheet stylesheet = at(new Stylesheet(), ctx.getStart());
+        ast.setRoot(stylesheet);
+        currentContainer.push(stylesheet);
+    }
+
+    @Override
+    public void exitStylesheet(ICSSParser.StylesheetContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void enterStylerule(ICSSParser.StyleruleContext ctx) {
+        enterNode(at(new Stylerule(), ctx.getStart()));
+    }
+
+    @Override
+    public void exitStylerule(ICSSParser.StyleruleContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void exitClassSelector(ICSSParser.ClassSelectorContext ctx) {
+        currentContainer.peek().addChild(at(new ClassSelector(names.intern(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitIdSelector(ICSSParser.IdSelectorContext ctx) {
+        currentContainer.peek().addChild(at(new IdSelector(names.intern(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitTagSelector(ICSSParser.TagSelectorContext ctx) {
+        currentContainer.peek().addChild(at(new TagSelector(names.intern(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void enterDeclaration(ICSSParser.DeclarationContext ctx) {
+        Declaration declaration = at(new Declaration(names.intern(ctx.getStart())), ctx.getStart());
+        at(declaration.property, ctx.getStart());
+        enterNode(declaration);
+    }
+
+    @Override
+    public void exitDeclaration(ICSSParser.DeclarationContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void enterVariableAssignment(ICSSParser.VariableAssignmentContext ctx) {
+        VariableAssignment varAssign = at(new VariableAssignment(), ctx.getStart());
+        varAssign.name = at(new VariableReference(names.intern(ctx.getStart())), ctx.getStart());
+        enterNode(varAssign);
+    }
+
+    @Override
+    public void exitVariableAssignment(ICSSParser.VariableAssignmentContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void enterConditional(ICSSParser.ConditionalContext ctx) {
+        enterNode(at(new IfClause(), ctx.getStart()));
+    }
+
+    @Override
+    public void exitConditional(ICSSParser.ConditionalContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void exitAttribute(ICSSParser.AttributeContext ctx) {
+        Expression condition = popOperand();
+        if (condition != null) {
+            currentContainer.peek().addChild(condition);
+        }
+    }
+
+    @Override
+    public void enterElseClause(ICSSParser.ElseClauseContext ctx) {
+        enterNode(at(new ElseClause(), ctx.getStart()));
+    }
+
+    @Override
+    public void exitElseClause(ICSSParser.ElseClauseContext ctx) {
+        exitNode();
+    }
+
+    @Override
+    public void enterExpression(ICSSParser.ExpressionContext ctx) {
+        operandStarts.push(operands.size());
+    }
+
+    @Override
+    public void exitExpression(ICSSParser.ExpressionContext ctx) {
+        Expression expr = combineOperands(ctx);
+        if (expr != null) {
+            currentContainer.peek().addChild(expr);
+        }
+    }
+
+    @Override
+    public void enterTerm(ICSSParser.TermContext ctx) {
+        operandStarts.push(operands.size());
+    }
+
+    @Override
+    public void exitTerm(ICSSParser.TermContext ctx) {
+        Expression term = combineOperands(ctx);
+        if (term != null) {
+            operands.add(term);
+        }
+    }
+
+    /*
+     * Pops one operand more than there are operator tokens in ctx and folds them
+     * into a left-deep operation, in the same shape ASTListener builds. Other terminals,
+     * such as the error nodes of a syntax error, are no operators and are skipped, and
+     * operands pushed before ctx was entered are never taken, even when an operator
+     * lost its operand to a syntax error.
+     */
+    private Expression combineOperands(ParserRuleContext ctx) {
+        ArrayList<Token> operators = new ArrayList<>();
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            ParseTree child = ctx.getChild(i);
+            if (child instanceof TerminalNode && isOperator(((TerminalNode) child).getSymbol())) {
+                operators.add(((TerminalNode) child).getSymbol());
+            }
+        }
+        int first = Math.max(operandStarts.pop(), operands.size() - operators.size() - 1);
+        if (first == operands.size()) {
+            return null;
+        }
+        Expression left = operands.get(first);
+        for (int i = first + 1; i < operands.size(); i++) {
+            Token operator = operators.get(i - first - 1);
+            Operation opNode = createOperation(operator.getText());
+            if (opNode != null) {
+                at(opNode, operator);
+                opNode.addChild(left);
+                opNode.addChild(operands.get(i));
+                left = opNode;
+            }
+        }
+        operands.subList(first, operands.size()).clear();
+        return left;
+    }
+
+    private static boolean isOperator(Token token) {
+        int type = token.getType();
+        return type == ICSSParser.PLUS || type == ICSSParser.MIN || type == ICSSParser.MUL;
+    }
+
+    private Operation createOperation(String operator) {
+        switch (operator) {
+            case "+":
+                return new AddOperation();
+            case "-":
+                return new SubtractOperation();
+            case "*":
+                return new MultiplyOperation();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void exitPixelLiteral(ICSSParser.PixelLiteralContext ctx) {
+        operands.add(at(new PixelLiteral(ICSSToken.intValue(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitPercentageLiteral(ICSSParser.PercentageLiteralContext ctx) {
+        operands.add(at(new PercentageLiteral(ICSSToken.intValue(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitScalarLiteral(ICSSParser.ScalarLiteralContext ctx) {
+        operands.add(at(new ScalarLiteral(ICSSToken.intValue(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitColorLiteral(ICSSParser.ColorLiteralContext ctx) {
+        operands.add(at(new ColorLiteral(names.intern(ctx.getStart())), ctx.getStart()));
+    }
+
+    @Override
+    public void exitBoolLiteral(ICSSParser.BoolLiteralContext ctx) {
+        operands.add(at(new BoolLiteral(ctx.getStart().getType() == ICSSParser.TRUE), ctx.getStart()));
+    }
+
+    @Override
+    public void exitVariableReference(ICSSParser.VariableReferenceContext ctx) {
+        operands.add(at(new VariableReference(names.intern(ctx.getStart())), ctx.getStart()));
+    }
+}
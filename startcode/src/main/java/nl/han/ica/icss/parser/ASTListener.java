@@ -9,6 +9,9 @@ import nl.han.ica.icss.ast.selectors.ClassSelector;
 import nl.han.ica.icss.ast.selectors.IdSelector;
 import nl.han.ica.icss.ast.selectors.TagSelector;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.util.List;
 
@@ -21,10 +24,50 @@ public class ASTListener extends ICSSBaseListener {
     private AST ast;
     //Use this to keep track of the parent nodes when recursively traversing the ast
     private IHANStack<ASTNode> currentContainer;
+    //Gives repeated names and colors one shared instance
+    private InternTable names;
+    //Receives the start of every node, shifted by the position of the parsed text in its document
+    private SourcePositions positions;
+    private int baseOffset;
+    private int baseLine;
+    private int baseColumn;
 
     public ASTListener() {
+        this(new InternTable());
+    }
+
+    public ASTListener(InternTable names) {
+        this(names, new SourcePositions(), 0, 1, 0);
+    }
+
+    /**
+     * Creates a listener for text that starts at baseOffset, on baseLine and baseColumn, of a larger document.
+     * @param positions the table that gets the document positions of the new nodes
+     */
+    public ASTListener(InternTable names, SourcePositions positions, int baseOffset, int baseLine, int baseColumn) {
         ast = new AST();
+        ast.setSourcePositions(positions);
         currentContainer = new HANStack<>();
+        this.names = names;
+        this.positions = positions;
+        this.baseOffset = baseOffset;
+        this.baseLine = baseLine;
+        this.baseColumn = baseColumn;
+    }
+
+    //Records where token starts as the position of node
+    private <T extends ASTNode> T at(T node, Token token) {
+        int line = token.getLine();
+        int column = line == 1 ? baseColumn + token.getCharPositionInLine() : token.getCharPositionInLine();
+        positions.record(node, baseOffset + token.getStartIndex(), baseLine + line - 1, column);
+        return node;
+    }
+
+    private Token startOf(ParseTree tree) {
+        if (tree instanceof TerminalNode) {
+            return ((TerminalNode) tree).getSymbol();
+        }
+        return ((ParserRuleContext) tree).getStart();
     }
 
     public AST getAST() {
@@ -41,7 +84,7 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterStylesheet(ICSSParser.StylesheetContext ctx) {
-        Stylesheet stylesheet = new Stylesheet();
+        Stylesheet stylesheet = at(new Stylesheet(), ctx.getStart());
         ast.setRoot(stylesheet);
         enterNode(stylesheet);
     }
@@ -53,16 +96,16 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterStylerule(ICSSParser.StyleruleContext ctx){
-        Stylerule rule = new Stylerule();
+        Stylerule rule = at(new Stylerule(), ctx.getStart());
         ICSSParser.SelectorContext selectorCtx = ctx.selector();
         Selector selector = null;
 
         if (selectorCtx.classSelector() != null) {
-            selector = new ClassSelector(selectorCtx.classSelector().getText());
+            selector = at(new ClassSelector(names.intern(selectorCtx.classSelector().getStart())), selectorCtx.getStart());
         } else if (selectorCtx.idSelector() != null) {
-            selector = new IdSelector(selectorCtx.idSelector().getText());
+            selector = at(new IdSelector(names.intern(selectorCtx.idSelector().getStart())), selectorCtx.getStart());
         } else if (selectorCtx.tagSelector() != null) {
-            selector = new TagSelector(selectorCtx.tagSelector().getText());
+            selector = at(new TagSelector(names.intern(selectorCtx.tagSelector().getStart())), selectorCtx.getStart());
         }
 
         if (selector != null) {
@@ -80,8 +123,8 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterDeclaration(ICSSParser.DeclarationContext ctx){
-        Declaration decl = new Declaration();
-        decl.property = new PropertyName(ctx.LOWER_IDENT().getText());
+        Declaration decl = at(new Declaration(), ctx.getStart());
+        decl.property = at(new PropertyName(names.intern(ctx.LOWER_IDENT().getSymbol())), ctx.getStart());
         currentContainer.peek().addChild(decl);
         enterNode(decl);
     }
@@ -93,9 +136,9 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterVariableAssignment(ICSSParser.VariableAssignmentContext ctx) {
-        VariableAssignment varAssign = new VariableAssignment();
-        String varName = ctx.VAR_IDENT().getText();
-        varAssign.name = new VariableReference(varName);
+        VariableAssignment varAssign = at(new VariableAssignment(), ctx.getStart());
+        String varName = names.intern(ctx.VAR_IDENT().getSymbol());
+        varAssign.name = at(new VariableReference(varName), ctx.getStart());
         currentContainer.peek().addChild(varAssign);
         enterNode(varAssign);
     }
@@ -124,7 +167,7 @@ public class ASTListener extends ICSSBaseListener {
             Expression right = buildFactor(factors.get(i));
             if (left == null || right == null) continue;
 
-            MultiplyOperation op = new MultiplyOperation();
+            MultiplyOperation op = at(new MultiplyOperation(), startOf(ctx.getChild(2 * i - 1)));
             op.addChild(left);
             op.addChild(right);
             left = op;
@@ -133,31 +176,36 @@ public class ASTListener extends ICSSBaseListener {
     }
 
     private Expression buildFactor(ICSSParser.FactorContext ctx) {
+        Expression factor = createFactor(ctx);
+        return factor == null ? null : at(factor, ctx.getStart());
+    }
+
+    private Expression createFactor(ICSSParser.FactorContext ctx) {
         if (ctx.pixelLiteral() != null) {
-            return new PixelLiteral(ctx.pixelLiteral().getText());
+            return new PixelLiteral(ICSSToken.intValue(ctx.pixelLiteral().getStart()));
         } else if (ctx.colorLiteral() != null) {
-            return new ColorLiteral(ctx.colorLiteral().getText());
+            return new ColorLiteral(names.intern(ctx.colorLiteral().getStart()));
         } else if (ctx.percentageLiteral() != null) {
-            return new PercentageLiteral(ctx.percentageLiteral().getText());
+            return new PercentageLiteral(ICSSToken.intValue(ctx.percentageLiteral().getStart()));
         } else if (ctx.scalarLiteral() != null) {
-            return new ScalarLiteral(ctx.scalarLiteral().getText());
+            return new ScalarLiteral(ICSSToken.intValue(ctx.scalarLiteral().getStart()));
         } else if (ctx.boolLiteral() != null) {
             return buildBoolLiteral(ctx.boolLiteral());
         } else if (ctx.variableReference() != null) {
-            return new VariableReference(ctx.variableReference().VAR_IDENT().getText());
+            return new VariableReference(names.intern(ctx.variableReference().VAR_IDENT().getSymbol()));
         }
         return null;
     }
 
     private Literal buildLiteral(ParserRuleContext ctx) {
         if (ctx instanceof ICSSParser.PixelLiteralContext)
-            return new PixelLiteral(ctx.getText());
+            return new PixelLiteral(ICSSToken.intValue(ctx.getStart()));
         if (ctx instanceof ICSSParser.PercentageLiteralContext)
-            return new PercentageLiteral(ctx.getText());
+            return new PercentageLiteral(ICSSToken.intValue(ctx.getStart()));
         if (ctx instanceof ICSSParser.ScalarLiteralContext)
-            return new ScalarLiteral(ctx.getText());
+            return new ScalarLiteral(ICSSToken.intValue(ctx.getStart()));
         if (ctx instanceof ICSSParser.ColorLiteralContext)
-            return new ColorLiteral(ctx.getText());
+            return new ColorLiteral(names.intern(ctx.getStart()));
         return null;
     }
 
@@ -167,14 +215,15 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterConditional(ICSSParser.ConditionalContext ctx) {
-        IfClause ifClause = new IfClause();
+        IfClause ifClause = at(new IfClause(), ctx.getStart());
         ICSSParser.AttributeContext attctx = ctx.attribute();
         Expression condition = null;
 
         if (attctx.variableReference() != null) {
-            condition = new VariableReference(attctx.variableReference().VAR_IDENT().getText());
+            condition = at(new VariableReference(names.intern(attctx.variableReference().VAR_IDENT().getSymbol())),
+                    attctx.variableReference().getStart());
         } else if (attctx.boolLiteral() != null) {
-            condition = buildBoolLiteral(attctx.boolLiteral());
+            condition = at(buildBoolLiteral(attctx.boolLiteral()), attctx.boolLiteral().getStart());
         }
         if (condition != null) {
             ifClause.addChild(condition);
@@ -190,7 +239,7 @@ public class ASTListener extends ICSSBaseListener {
 
     @Override
     public void enterElseClause(ICSSParser.ElseClauseContext ctx) {
-        ElseClause elseClause = new ElseClause();
+        ElseClause elseClause = at(new ElseClause(), ctx.getStart());
         currentContainer.peek().addChild(elseClause);
         enterNode(elseClause);
     }
@@ -220,6 +269,7 @@ public class ASTListener extends ICSSBaseListener {
             }
 
             if (opNode != null) {
+                at(opNode, startOf(ctx.getChild(2 * i - 1)));
                 opNode.addChild(left);
                 opNode.addChild(right);
                 left = opNode;
@@ -0,0 +1,172 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A CharStream that lets the lexer read ASCII input straight from a ByteBuffer,
+ * for example a memory-mapped file. Every byte is one character, so no String or
+ * code point buffer is built for the input. Token text is only created when asked for.
+ *
+ * The stream covers the bytes between the position and the limit the buffer had when the stream
+ * was created; index 0 of the stream is that position. The buffer itself is not moved.
+ */
+public class ByteBufferCharStream implements CharStream {
+
+    private final ByteBuffer buffer;
+    //The buffer index of stream index 0
+    private final int start;
+    private final int size;
+    private final String name;
+    private int index = 0;
+
+    public ByteBufferCharStream(ByteBuffer buffer, String name) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.size = buffer.limit() - start;
+        this.name = name;
+    }
+
+    /**
+     * Maps the file at path into memory. Input that is not plain ASCII is decoded as UTF-8 instead.
+     * @param path the file to read
+     * @return a CharStream over the contents of the file
+     */
+    public static CharStream fromPath(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fromFileChannel(channel, path.toString());
+        }
+    }
+
+    /**
+     * Reads the channel into a single buffer, or maps it when it is a FileChannel.
+     * Input that is not plain ASCII is decoded as UTF-8 instead.
+     * @param channel the channel to read until end of stream, it must be in blocking mode
+     * @param name the source name reported by the lexer
+     * @return a CharStream over the contents of the channel
+     * @throws IllegalArgumentException when channel is in non-blocking mode, reading it would spin
+     */
+    public static CharStream fromChannel(ReadableByteChannel channel, String name) throws IOException {
+        if (channel instanceof FileChannel) {
+            return fromFileChannel((FileChannel) channel, name);
+        }
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("Cannot read a non-blocking channel: " + name);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (channel.read(buffer) >= 0) {
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        return fromBuffer(buffer, name);
+    }
+
+    private static CharStream fromFileChannel(FileChannel channel, String name) throws IOException {
+        long position = channel.position();
+        long length = channel.size() - position;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Input is too large to map: " + name);
+        }
+        return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, position, length), name);
+    }
+
+    private static CharStream fromBuffer(ByteBuffer buffer, String name) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) < 0) {
+                return CharStreams.fromString(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString(), name);
+            }
+        }
+        return new ByteBufferCharStream(buffer, name);
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        index++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int pos;
+        if (i > 0) {
+            pos = index + i - 1;
+        } else if (i < 0) {
+            pos = index + i;
+        } else {
+            return 0;
+        }
+        if (pos < 0 || pos >= size) {
+            return IntStream.EOF;
+        }
+        return buffer.get(start + pos);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = Math.min(index, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        if (name == null || name.isEmpty()) {
+            return UNKNOWN_SOURCE_NAME;
+        }
+        return name;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int from = interval.a;
+        int stop = Math.min(interval.b, size - 1);
+        if (from < 0 || from > stop) {
+            return "";
+        }
+        byte[] bytes = new byte[stop - from + 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + from + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
@@ -0,0 +1,307 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.Arrays;
+
+/**
+ * A TokenStream that keeps its tokens in parallel int arrays instead of one CommonToken per token.
+ * Token objects are only created when the parser asks for one, and their text is read from the
+ * CharStream when it is needed. The arrays are kept between inputs, so a reused stream does not
+ * allocate anything for tokens that were already seen by the parser; releaseBuffers gives them up.
+ *
+ * This only saves memory when the parser does not build a parse tree, because a parse tree holds
+ * on to every token it matched. By default the stream therefore keeps every token it created, so
+ * asking for the same index always gives the same instance, just like a CommonTokenStream. With
+ * setKeepTokens(false) only the last few tokens are kept, and a token asked for again after that
+ * is an equal new instance; tokens should then be compared by their token index.
+ *
+ * When the source is an ICSSScanner the tokens are scanned straight into the arrays. Other token
+ * sources are read with nextToken(), tokens that are not on the default channel are left out.
+ */
+public class CompactTokenStream implements TokenStream {
+
+    //Set in the type of a token whose number was decoded by the scanner
+    private static final int HAS_VALUE = 1 << 30;
+    private static final int CACHE_SIZE = 16;
+
+    private TokenSource tokenSource;
+    private ICSSScanner scanner;
+    private Pair<TokenSource, CharStream> sourcePair;
+
+    private int[] types = new int[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] stops = new int[INITIAL_CAPACITY];
+    private int[] lines = new int[INITIAL_CAPACITY];
+    private int[] columns = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int count = 0;
+    private boolean fetchedEOF = false;
+    private int p = 0;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //Recently created tokens, so asking for the same index twice in a row gives the same token
+    private final Token[] cache = new Token[CACHE_SIZE];
+    //Every created token by index when tokens are kept, null otherwise
+    private Token[] tokens = null;
+    private boolean keepTokens = true;
+
+    public CompactTokenStream(TokenSource tokenSource) {
+        setTokenSource(tokenSource);
+    }
+
+    /**
+     * Starts reading from a new token source, forgetting all tokens of the previous one.
+     * The source has to be positioned at the start of its input.
+     */
+    public void setTokenSource(TokenSource tokenSource) {
+        this.tokenSource = tokenSource;
+        scanner = tokenSource instanceof ICSSScanner ? (ICSSScanner) tokenSource : null;
+        sourcePair = tokenSource == null ? null : new Pair<>(tokenSource, tokenSource.getInputStream());
+        count = 0;
+        fetchedEOF = false;
+        p = 0;
+        Arrays.fill(cache, null);
+        if (tokens != null) {
+            Arrays.fill(tokens, null);
+        }
+        if (!keepTokens) {
+            tokens = null;
+        }
+    }
+
+    /**
+     * Sets whether every created token is kept, so the same index always gives the same instance.
+     * Turn it off when the parser does not build a parse tree, otherwise nothing is saved.
+     * Takes effect from the next setTokenSource.
+     */
+    public void setKeepTokens(boolean keepTokens) {
+        this.keepTokens = keepTokens;
+    }
+
+    /**
+     * Shrinks the arrays back to their initial size, so an idle stream does not hold the
+     * memory of the largest input it has seen. Also forgets the current token source.
+     */
+    public void releaseBuffers() {
+        types = new int[INITIAL_CAPACITY];
+        starts = new int[INITIAL_CAPACITY];
+        stops = new int[INITIAL_CAPACITY];
+        lines = new int[INITIAL_CAPACITY];
+        columns = new int[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        tokens = null;
+        setTokenSource(null);
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return tokenSource;
+    }
+
+    /**
+     * @return the number of tokens read from the source so far, including EOF once it was reached
+     */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public int mark() {
+        return 0;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public void seek(int index) {
+        sync(index);
+        p = Math.min(index, count - 1);
+    }
+
+    @Override
+    public void consume() {
+        if (LA(1) == Token.EOF) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+        sync(p);
+    }
+
+    @Override
+    public int LA(int i) {
+        int index = lookIndex(i);
+        if (index < 0) {
+            return Token.INVALID_TYPE;
+        }
+        int type = types[index];
+        return hasValue(type) ? type & ~HAS_VALUE : type;
+    }
+
+    @Override
+    public Token LT(int k) {
+        int index = lookIndex(k);
+        return index < 0 ? null : get(index);
+    }
+
+    //Index of the k-th token ahead (or behind when k is negative), -1 when there is none
+    private int lookIndex(int k) {
+        if (k == 0) {
+            return -1;
+        }
+        int index = k < 0 ? p + k : p + k - 1;
+        if (index < 0) {
+            return -1;
+        }
+        sync(index);
+        return Math.min(index, count - 1);
+    }
+
+    //EOF is negative, so it never has the flag
+    private static boolean hasValue(int type) {
+        return type >= 0 && (type & HAS_VALUE) != 0;
+    }
+
+    @Override
+    public Token get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("token index " + index + " out of range 0.." + (count - 1));
+        }
+        if (keepTokens) {
+            if (tokens == null || tokens.length < types.length) {
+                tokens = tokens == null ? new Token[types.length] : Arrays.copyOf(tokens, types.length);
+            }
+            if (tokens[index] == null) {
+                tokens[index] = createToken(index);
+            }
+            return tokens[index];
+        }
+        int slot = index % CACHE_SIZE;
+        Token token = cache[slot];
+        if (token == null || token.getTokenIndex() != index) {
+            token = createToken(index);
+            cache[slot] = token;
+        }
+        return token;
+    }
+
+    private Token createToken(int index) {
+        int type = types[index];
+        CommonToken token;
+        if (hasValue(type)) {
+            token = new ICSSToken(sourcePair, type & ~HAS_VALUE, starts[index], stops[index], values[index]);
+        } else {
+            token = new CommonToken(sourcePair, type, Token.DEFAULT_CHANNEL, starts[index], stops[index]);
+        }
+        token.setLine(lines[index]);
+        token.setCharPositionInLine(columns[index]);
+        token.setTokenIndex(index);
+        return token;
+    }
+
+    //Reads tokens from the source until index exists or EOF was read
+    private void sync(int index) {
+        while (index >= count && !fetchedEOF) {
+            fetch();
+        }
+    }
+
+    private void fetch() {
+        if (count == types.length) {
+            int length = count * 2;
+            types = Arrays.copyOf(types, length);
+            starts = Arrays.copyOf(starts, length);
+            stops = Arrays.copyOf(stops, length);
+            lines = Arrays.copyOf(lines, length);
+            columns = Arrays.copyOf(columns, length);
+            values = Arrays.copyOf(values, length);
+        }
+        int type;
+        if (scanner != null) {
+            type = scanner.scan();
+            starts[count] = scanner.getTokenStart();
+            stops[count] = scanner.getTokenStop();
+            lines[count] = scanner.getTokenLine();
+            columns[count] = scanner.getTokenColumn();
+            if (scanner.hasTokenValue()) {
+                values[count] = scanner.getTokenValue();
+                types[count] = type | HAS_VALUE;
+            } else {
+                types[count] = type;
+            }
+        } else {
+            Token token = tokenSource.nextToken();
+            while (token.getChannel() != Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+                token = tokenSource.nextToken();
+            }
+            type = token.getType();
+            starts[count] = token.getStartIndex();
+            stops[count] = token.getStopIndex();
+            lines[count] = token.getLine();
+            columns[count] = token.getCharPositionInLine();
+            if (token instanceof ICSSToken) {
+                values[count] = ((ICSSToken) token).getValue();
+                types[count] = type | HAS_VALUE;
+            } else {
+                types[count] = type;
+            }
+        }
+        count++;
+        fetchedEOF = type == Token.EOF;
+    }
+
+    @Override
+    public String getSourceName() {
+        return tokenSource.getSourceName();
+    }
+
+    @Override
+    public String getText() {
+        sync(Integer.MAX_VALUE - 1);
+        return getText(Interval.of(0, count - 1));
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = interval.a;
+        int stop = interval.b;
+        if (start < 0 || stop < 0) {
+            return "";
+        }
+        sync(stop);
+        stop = Math.min(stop, count - 1);
+        CharStream input = sourcePair.b;
+        StringBuilder builder = new StringBuilder();
+        for (int i = start; i <= stop; i++) {
+            if (types[i] == Token.EOF) {
+                break;
+            }
+            builder.append(input.getText(Interval.of(starts[i], stops[i])));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String getText(RuleContext ctx) {
+        return getText(ctx.getSourceInterval());
+    }
+
+    @Override
+    public String getText(Token start, Token stop) {
+        if (start != null && stop != null) {
+            return getText(Interval.of(start.getTokenIndex(), stop.getTokenIndex()));
+        }
+        return "";
+    }
+}
@@ -0,0 +1,190 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.AST;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+/**
+ * Keeps one lexer, token stream and parser alive so they can be reused for many inputs.
+ * The DFA caches of ICSSLexer and ICSSParser are static, so every session in the JVM
+ * shares the warmed-up prediction state.
+ *
+ * A session is not thread safe. Worker threads should each borrow their own session
+ * from a CompileSessionPool and close it when they are done.
+ */
+public class CompileSession implements AutoCloseable {
+
+    private final ICSSLexer lexer;
+    private final ICSSScanner scanner;
+    private final CommonTokenStream tokens;
+    private final CompactTokenStream compactTokens;
+    private final ICSSParser parser;
+    private final ParseStatistics statistics;
+    private final CompileSessionPool pool;
+    private boolean twoStageParsing = false;
+    private boolean buildParseTree = true;
+    private boolean handWrittenLexer = false;
+    private boolean compactTokenStream = false;
+    private InternTable sharedNames = null;
+
+    public CompileSession() {
+        this(null, new ParseStatistics());
+    }
+
+    CompileSession(CompileSessionPool pool, ParseStatistics statistics) {
+        this.pool = pool;
+        this.statistics = statistics;
+        lexer = new ICSSLexer(null);
+        scanner = new ICSSScanner(null);
+        tokens = new CommonTokenStream(lexer);
+        compactTokens = new CompactTokenStream(null);
+        parser = new ICSSParser(tokens);
+    }
+
+    public ParseStatistics getParseStatistics() {
+        return statistics;
+    }
+
+    /**
+     * In two-stage mode the input is first parsed with SLL prediction, bailing out on the first error.
+     * Only when that fails it is parsed again with full LL prediction and the normal error reporting.
+     */
+    public void setTwoStageParsing(boolean twoStageParsing) {
+        this.twoStageParsing = twoStageParsing;
+    }
+
+    /**
+     * When buildParseTree is off the AST is built by an ASTBuilder while the parser runs,
+     * so the parse tree is never kept and no separate walk over it is needed.
+     */
+    public void setBuildParseTree(boolean buildParseTree) {
+        this.buildParseTree = buildParseTree;
+    }
+
+    /**
+     * Uses the hand-written ICSSScanner instead of the generated ICSSLexer. Both produce the same tokens.
+     */
+    public void setHandWrittenLexer(boolean handWrittenLexer) {
+        this.handWrittenLexer = handWrittenLexer;
+    }
+
+    /**
+     * Buffers the tokens in a CompactTokenStream instead of a CommonTokenStream. The parser gets the same
+     * tokens, but they are kept in int arrays and only turned into token objects when the parser needs one.
+     * That only saves memory together with setBuildParseTree(false): a parse tree holds every token anyway.
+     */
+    public void setCompactTokenStream(boolean compactTokenStream) {
+        this.compactTokenStream = compactTokenStream;
+    }
+
+    /**
+     * Sets the InternTable used for the names in the AST. When it is null, which is the default,
+     * every parse gets a table of its own.
+     */
+    public void setSharedInternTable(InternTable sharedNames) {
+        this.sharedNames = sharedNames;
+    }
+
+    /**
+     * Lexes and parses input and extracts the AST.
+     * @param input the ICSS source
+     * @param errorListener receives the syntax errors of both the lexer and the parser
+     * @return the AST of input
+     */
+    public AST parse(CharStream input, ANTLRErrorListener errorListener) {
+        TokenSource tokenSource;
+        if (handWrittenLexer) {
+            scanner.setInputStream(input);
+            scanner.removeErrorListeners();
+            scanner.addErrorListener(errorListener);
+            tokenSource = scanner;
+        } else {
+            lexer.setInputStream(input);
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(errorListener);
+            tokenSource = lexer;
+        }
+        if (compactTokenStream) {
+            compactTokens.setKeepTokens(buildParseTree);
+            compactTokens.setTokenSource(tokenSource);
+            parser.setInputStream(compactTokens);
+        } else {
+            tokens.setTokenSource(tokenSource);
+            parser.setInputStream(tokens);
+        }
+
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        try {
+            if (twoStageParsing) {
+                //Stage 1: SLL prediction, give up on the first syntax error
+                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                parser.setErrorHandler(new BailErrorStrategy());
+                parser.removeErrorListeners();
+                try {
+                    AST ast = runParser();
+                    statistics.recordSllParse();
+                    return ast;
+                } catch (ParseCancellationException e) {
+                    //Stage 2: rewind and parse again with full LL, reporting errors as usual
+                    statistics.recordLlFallback();
+                    parser.reset();
+                    parser.addErrorListener(errorListener);
+                    parser.setErrorHandler(new DefaultErrorStrategy());
+                    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                }
+            }
+            AST ast = runParser();
+            if (!twoStageParsing) {
+                statistics.recordLlParse();
+            }
+            return ast;
+        } finally {
+            //Drop the tokens and the input, so an idle session does not keep them alive
+            lexer.setInputStream(null);
+            scanner.setInputStream(null);
+            tokens.setTokenSource(lexer);
+            compactTokens.setTokenSource(null);
+        }
+    }
+
+    private AST runParser() {
+        InternTable names = sharedNames != null ? sharedNames : new InternTable();
+        if (!buildParseTree) {
+            ASTBuilder builder = new ASTBuilder(names);
+            parser.setBuildParseTree(false);
+            parser.addParseListener(builder);
+            try {
+                parser.stylesheet();
+            } finally {
+                parser.removeParseListeners();
+            }
+            return builder.getAST();
+        }
+
+        parser.setBuildParseTree(true);
+        ParseTree parseTree = parser.stylesheet();
+
+        //Extract AST from the Antlr parse tree
+        ASTListener listener = new ASTListener(names);
+        ParseTreeWalker.DEFAULT.walk(listener, parseTree);
+        return listener.getAST();
+    }
+
+    /**
+     * Returns this session to the pool it was borrowed from. Sessions created without a pool are simply dropped.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            //Idle sessions hold no input, and no buffers sized for the last one
+            compactTokens.releaseBuffers();
+            pool.release(this);
+        }
+    }
+}
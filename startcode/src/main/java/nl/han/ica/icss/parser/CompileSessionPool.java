@@ -0,0 +1,104 @@
+package nl.han.ica.icss.parser;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe pool of CompileSessions. Each borrowed session belongs to one thread
+ * until it is closed, after which another thread can reuse its lexer and parser.
+ * All sessions of a pool report to the same ParseStatistics.
+ */
+public class CompileSessionPool {
+
+    private final ConcurrentLinkedQueue<CompileSession> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final ParseStatistics statistics = new ParseStatistics();
+    private final int maxIdle;
+    private volatile boolean twoStageParsing = false;
+    private volatile boolean buildParseTree = true;
+    private volatile boolean handWrittenLexer = false;
+    private volatile boolean compactTokenStream = false;
+    private volatile InternTable sharedNames = null;
+
+    public CompileSessionPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxIdle the number of idle sessions kept for reuse, sessions returned beyond that are dropped
+     */
+    public CompileSessionPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public ParseStatistics getParseStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets the parse mode of every session borrowed from now on.
+     * @see CompileSession#setTwoStageParsing(boolean)
+     */
+    public void setTwoStageParsing(boolean twoStageParsing) {
+        this.twoStageParsing = twoStageParsing;
+    }
+
+    /**
+     * Sets the AST build mode of every session borrowed from now on.
+     * @see CompileSession#setBuildParseTree(boolean)
+     */
+    public void setBuildParseTree(boolean buildParseTree) {
+        this.buildParseTree = buildParseTree;
+    }
+
+    /**
+     * Sets the lexer of every session borrowed from now on.
+     * @see CompileSession#setHandWrittenLexer(boolean)
+     */
+    public void setHandWrittenLexer(boolean handWrittenLexer) {
+        this.handWrittenLexer = handWrittenLexer;
+    }
+
+    /**
+     * Sets the token stream of every session borrowed from now on.
+     * @see CompileSession#setCompactTokenStream(boolean)
+     */
+    public void setCompactTokenStream(boolean compactTokenStream) {
+        this.compactTokenStream = compactTokenStream;
+    }
+
+    /**
+     * Sets the InternTable of every session borrowed from now on, null gives each parse its own table.
+     * @see CompileSession#setSharedInternTable(InternTable)
+     */
+    public void setSharedInternTable(InternTable sharedNames) {
+        this.sharedNames = sharedNames;
+    }
+
+    /**
+     * Takes an idle session, or creates a new one when none is available.
+     * @return a session for the calling thread only, close it to give it back
+     */
+    public CompileSession borrow() {
+        CompileSession session = idle.poll();
+        if (session == null) {
+            session = new CompileSession(this, statistics);
+        } else {
+            idleCount.decrementAndGet();
+        }
+        session.setTwoStageParsing(twoStageParsing);
+        session.setBuildParseTree(buildParseTree);
+        session.setHandWrittenLexer(handWrittenLexer);
+        session.setCompactTokenStream(compactTokenStream);
+        session.setSharedInternTable(sharedNames);
+        return session;
+    }
+
+    void release(CompileSession session) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(session);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
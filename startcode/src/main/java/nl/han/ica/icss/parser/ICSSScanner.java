@@ -0,0 +1,361 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hand-written replacement for the generated ICSSLexer. It recognizes the same tokens
+ * with the same types, positions and error messages, but without running the lexer ATN.
+ *
+ * scan() finds the next token without allocating anything and leaves its attributes in
+ * the getters below. nextToken() wraps that in a token object for the ANTLR parser;
+ * numeric tokens become ICSSTokens that carry their decoded value.
+ */
+public class ICSSScanner implements TokenSource {
+
+    private CharStream input;
+    private Pair<TokenSource, CharStream> sourcePair;
+    private final List<ANTLRErrorListener> errorListeners = new ArrayList<>();
+    //Creates the tokens when set, otherwise numeric tokens become ICSSTokens
+    private TokenFactory<?> factory;
+
+    //Position of the next character to scan
+    private int line = 1;
+    private int column = 0;
+
+    //Attributes of the last scanned token
+    private int tokenStart;
+    private int tokenStop;
+    private int tokenLine;
+    private int tokenColumn;
+    private int tokenValue;
+    private boolean tokenHasValue;
+
+    public ICSSScanner(CharStream input) {
+        setInputStream(input);
+    }
+
+    public void setInputStream(CharStream input) {
+        this.input = input;
+        this.sourcePair = new Pair<>(this, input);
+        line = 1;
+        column = 0;
+        if (input != null) {
+            input.seek(0);
+        }
+    }
+
+    public void addErrorListener(ANTLRErrorListener listener) {
+        errorListeners.add(listener);
+    }
+
+    public void removeErrorListeners() {
+        errorListeners.clear();
+    }
+
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    public int getTokenStop() {
+        return tokenStop;
+    }
+
+    public int getTokenLine() {
+        return tokenLine;
+    }
+
+    public int getTokenColumn() {
+        return tokenColumn;
+    }
+
+    /**
+     * @return the decoded number of the last PIXELSIZE, PERCENTAGE or SCALAR token
+     */
+    public int getTokenValue() {
+        return tokenValue;
+    }
+
+    /**
+     * @return false when the last token is not numeric, or its number does not fit in an int
+     */
+    public boolean hasTokenValue() {
+        return tokenHasValue;
+    }
+
+    /**
+     * Scans the next token, skipping whitespace and reporting characters that do not form a token.
+     * @return the token type as defined in ICSSLexer, or Token.EOF at the end of the input
+     */
+    public int scan() {
+        while (true) {
+            skipWhitespace();
+            tokenStart = input.index();
+            tokenLine = line;
+            tokenColumn = column;
+            tokenHasValue = false;
+
+            int c = input.LA(1);
+            if (c == IntStream.EOF) {
+                tokenStop = tokenStart - 1;
+                return Token.EOF;
+            }
+            int type = scanToken(c);
+            if (type != Token.INVALID_TYPE) {
+                return type;
+            }
+        }
+    }
+
+    private int scanToken(int c) {
+        switch (c) {
+            case '[':
+                return accept(ICSSLexer.BOX_BRACKET_OPEN, 1);
+            case ']':
+                return accept(ICSSLexer.BOX_BRACKET_CLOSE, 1);
+            case '{':
+                return accept(ICSSLexer.OPEN_BRACE, 1);
+            case '}':
+                return accept(ICSSLexer.CLOSE_BRACE, 1);
+            case ';':
+                return accept(ICSSLexer.SEMICOLON, 1);
+            case '+':
+                return accept(ICSSLexer.PLUS, 1);
+            case '-':
+                return accept(ICSSLexer.MIN, 1);
+            case '*':
+                return accept(ICSSLexer.MUL, 1);
+            case ':':
+                if (input.LA(2) == '=') {
+                    return accept(ICSSLexer.ASSIGNMENT_OPERATOR, 2);
+                }
+                return accept(ICSSLexer.COLON, 1);
+            case '#':
+                return scanHash();
+            case '.':
+                int classLength = run(2, false);
+                if (classLength == 0) {
+                    return reject(2);
+                }
+                return accept(ICSSLexer.CLASS_IDENT, classLength + 1);
+            default:
+                if (c >= '0' && c <= '9') {
+                    return scanNumber();
+                } else if (c >= 'a' && c <= 'z') {
+                    return scanLowerIdent();
+                } else if (c >= 'A' && c <= 'Z') {
+                    return scanCapitalIdent();
+                }
+                return reject(1);
+        }
+    }
+
+    private int scanNumber() {
+        long value = 0;
+        int length = 0;
+        int c = input.LA(1);
+        while (c >= '0' && c <= '9') {
+            if (value <= Integer.MAX_VALUE) {
+                value = value * 10 + (c - '0');
+            }
+            length++;
+            c = input.LA(length + 1);
+        }
+        tokenValue = (int) value;
+        int type = ICSSLexer.SCALAR;
+        if (c == 'p' && input.LA(length + 2) == 'x') {
+            type = ICSSLexer.PIXELSIZE;
+            length += 2;
+        } else if (c == '%') {
+            type = ICSSLexer.PERCENTAGE;
+            length += 1;
+        }
+        accept(type, length);
+        tokenHasValue = value <= Integer.MAX_VALUE;
+        return type;
+    }
+
+    //COLOR wins over ID_IDENT only when both match the same six characters
+    private int scanHash() {
+        int length = run(2, false);
+        if (length == 0) {
+            return reject(2);
+        }
+        if (length == 6) {
+            boolean hex = true;
+            for (int i = 2; i <= 7; i++) {
+                int c = input.LA(i);
+                hex &= (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            }
+            if (hex) {
+                return accept(ICSSLexer.COLOR, 7);
+            }
+        }
+        return accept(ICSSLexer.ID_IDENT, length + 1);
+    }
+
+    private int scanLowerIdent() {
+        int lowerLength = run(1, false);
+        int varLength = varRun();
+        if (varLength > lowerLength) {
+            return accept(ICSSLexer.VAR_IDENT, varLength);
+        }
+        if (lowerLength == 2 && input.LA(1) == 'i' && input.LA(2) == 'f') {
+            return accept(ICSSLexer.IF, 2);
+        }
+        if (lowerLength == 4 && input.LA(1) == 'e' && input.LA(2) == 'l' && input.LA(3) == 's' && input.LA(4) == 'e') {
+            return accept(ICSSLexer.ELSE, 4);
+        }
+        return accept(ICSSLexer.LOWER_IDENT, lowerLength);
+    }
+
+    private int scanCapitalIdent() {
+        int capitalLength = run(1, true);
+        int varLength = varRun();
+        if (varLength > capitalLength) {
+            return accept(ICSSLexer.VAR_IDENT, varLength);
+        }
+        if (capitalLength == 4 && input.LA(1) == 'T' && input.LA(2) == 'R' && input.LA(3) == 'U' && input.LA(4) == 'E') {
+            return accept(ICSSLexer.TRUE, 4);
+        }
+        if (capitalLength == 5 && input.LA(1) == 'F' && input.LA(2) == 'A' && input.LA(3) == 'L'
+                && input.LA(4) == 'S' && input.LA(5) == 'E') {
+            return accept(ICSSLexer.FALSE, 5);
+        }
+        return accept(ICSSLexer.CAPITAL_IDENT, capitalLength);
+    }
+
+    /*
+     * Counts the characters from LA(from) on that are [a-z0-9\-], or [A-Za-z0-9_] when capital is set.
+     */
+    private int run(int from, boolean capital) {
+        int length = 0;
+        int c = input.LA(from);
+        while ((c >= '0' && c <= '9') || (capital
+                ? (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_'
+                : (c >= 'a' && c <= 'z') || c == '-')) {
+            length++;
+            c = input.LA(from + length);
+        }
+        return length;
+    }
+
+    //Length of the VAR_IDENT match [a-zA-Z] [a-zA-Z0-9_-]* at the token start
+    private int varRun() {
+        int length = 1;
+        int c = input.LA(2);
+        while ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+            length++;
+            c = input.LA(length + 1);
+        }
+        return length;
+    }
+
+    //Tokens never contain a line break, so only the column moves
+    private int accept(int type, int length) {
+        tokenStop = tokenStart + length - 1;
+        input.seek(tokenStart + length);
+        column += length;
+        return type;
+    }
+
+    /*
+     * Reports the characters up to and including LA(length) the same way ICSSLexer does,
+     * then continues scanning after them.
+     */
+    private int reject(int length) {
+        String text = input.getText(Interval.of(tokenStart, tokenStart + length - 1));
+        String message = "token recognition error at: '" + escape(text) + "'";
+        for (ANTLRErrorListener listener : errorListeners) {
+            listener.syntaxError(null, null, tokenLine, tokenColumn, message, null);
+        }
+        for (int i = 0; i < length && input.LA(1) != IntStream.EOF; i++) {
+            consume();
+        }
+        return Token.INVALID_TYPE;
+    }
+
+    private String escape(String text) {
+        return text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+
+    private void skipWhitespace() {
+        int c = input.LA(1);
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            consume();
+            c = input.LA(1);
+        }
+    }
+
+    private void consume() {
+        if (input.LA(1) == '\n') {
+            line++;
+            column = 0;
+        } else {
+            column++;
+        }
+        input.consume();
+    }
+
+    @Override
+    public Token nextToken() {
+        int type = scan();
+        if (factory != null) {
+            return factory.create(sourcePair, type, null, Token.DEFAULT_CHANNEL, tokenStart, tokenStop, tokenLine, tokenColumn);
+        }
+        if (type == Token.EOF) {
+            CommonToken eof = new CommonToken(sourcePair, Token.EOF, Token.DEFAULT_CHANNEL, tokenStart, tokenStop);
+            eof.setLine(tokenLine);
+            eof.setCharPositionInLine(tokenColumn);
+            return eof;
+        }
+        CommonToken token;
+        if (tokenHasValue) {
+            token = new ICSSToken(sourcePair, type, tokenStart, tokenStop, tokenValue);
+        } else {
+            token = new CommonToken(sourcePair, type, Token.DEFAULT_CHANNEL, tokenStart, tokenStop);
+        }
+        token.setLine(tokenLine);
+        token.setCharPositionInLine(tokenColumn);
+        return token;
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return column;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    /**
+     * Lets factory create the tokens, like the generated lexer does. Its tokens do not carry
+     * the decoded number, so ICSSToken.intValue decodes their text again.
+     * @param factory the factory to use, or null for the default ICSSTokens
+     */
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory != null ? factory : CommonTokenFactory.DEFAULT;
+    }
+}
@@ -0,0 +1,42 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+/**
+ * A PIXELSIZE, PERCENTAGE or SCALAR token whose number was already decoded by the ICSSScanner.
+ */
+public class ICSSToken extends CommonToken {
+
+    private final int value;
+
+    public ICSSToken(Pair<TokenSource, CharStream> source, int type, int start, int stop, int value) {
+        super(source, type, DEFAULT_CHANNEL, start, stop);
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number in a PIXELSIZE, PERCENTAGE or SCALAR token. Tokens from the ICSSScanner carry
+     * it already, for other tokens the leading digits of the text are decoded without a substring.
+     * @param token a numeric token
+     * @return the number without its unit
+     */
+    public static int intValue(Token token) {
+        if (token instanceof ICSSToken) {
+            return ((ICSSToken) token).value;
+        }
+        String text = token.getText();
+        int end = 0;
+        while (end < text.length() && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        return Integer.parseInt(text, 0, end, 10);
+    }
+}
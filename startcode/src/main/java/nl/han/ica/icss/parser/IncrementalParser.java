@@ -0,0 +1,343 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.SourcePositions;
+import nl.han.ica.icss.ast.Stylesheet;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Keeps the AST of a document up to date while it is being edited. It remembers the source range
+ * of every top-level stylerule and variable assignment, so an edit only reparses the items it
+ * touches. Those are spliced into the existing stylesheet body, all other items (and their nodes)
+ * are kept as they are.
+ *
+ * Top-level items end with '}' or ';' and are otherwise separated by whitespace, so a region made
+ * of whole items lexes and parses the same on its own as it does inside the full document.
+ * When the region does not parse on its own (for example because a brace was removed) the whole
+ * document is parsed again, so errors are always reported with their real positions.
+ */
+public class IncrementalParser {
+
+    private final ICSSLexer lexer = new ICSSLexer(null);
+    private final CommonTokenStream tokens = new CommonTokenStream(lexer);
+    private final ICSSParser parser = new ICSSParser(tokens);
+    //Shared by all reparses, so reparsed items use the same name instances as the items that were kept
+    private final InternTable names = new InternTable();
+
+    private String text;
+    private AST ast;
+    //Source ranges of the items in the stylesheet body, null when they are unknown
+    private Ranges ranges;
+    //Positions of the nodes in text, with one group per item so moving an item does not visit its nodes
+    private SourcePositions positions;
+    private int lastReparsedLength = 0;
+
+    public AST getAST() {
+        return ast;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the number of characters lexed and parsed by the last parse, update or edit
+     */
+    public int getLastReparsedLength() {
+        return lastReparsedLength;
+    }
+
+    /**
+     * Forgets the item ranges, so the next update parses the whole document again.
+     * Needed when the AST was changed by something else than this parser.
+     */
+    public void invalidate() {
+        ranges = null;
+    }
+
+    /**
+     * Parses the whole document.
+     * @param text the ICSS source
+     * @param errorListener receives the syntax errors of both the lexer and the parser
+     * @return the AST of text
+     */
+    public AST parse(String text, ANTLRErrorListener errorListener) {
+        this.text = text;
+        ranges = new Ranges();
+        positions = new SourcePositions();
+        ArrayList<ASTNode> items = new ArrayList<>();
+        if (!parseItems(text, 0, 1, 0, errorListener, items, ranges)) {
+            ranges = null;
+        }
+        ast = new AST(new Stylesheet(items));
+        ast.setSourcePositions(positions);
+        lastReparsedLength = text.length();
+        return ast;
+    }
+
+    /**
+     * Brings the AST up to date with newText. The edit is found by comparing newText to the
+     * previous text, from the front and from the back.
+     * @param newText the complete new ICSS source
+     * @param errorListener receives the syntax errors of the reparsed region or document
+     * @return the updated AST
+     */
+    public AST update(String newText, ANTLRErrorListener errorListener) {
+        if (ranges == null) {
+            return parse(newText, errorListener);
+        }
+        int maxAffix = Math.min(text.length(), newText.length());
+        int prefix = 0;
+        while (prefix < maxAffix && text.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxAffix - prefix
+                && text.charAt(text.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return edit(prefix, text.length() - prefix - suffix,
+                newText.substring(prefix, newText.length() - suffix), errorListener);
+    }
+
+    /**
+     * Replaces removedLength characters at offset with insertedText and reparses the items that touch that range.
+     * @param errorListener receives the syntax errors when the document has to be parsed again as a whole
+     * @return the updated AST
+     */
+    public AST edit(int offset, int removedLength, String insertedText, ANTLRErrorListener errorListener) {
+        String newText = text.substring(0, offset) + insertedText + text.substring(offset + removedLength);
+        if (ranges == null) {
+            return parse(newText, errorListener);
+        }
+        int editEnd = offset + removedLength;
+        int delta = insertedText.length() - removedLength;
+
+        //Items [first, last) touch the edited range, including items that end or start right at its edges
+        int first = ranges.firstEndingAtOrAfter(offset);
+        int last = ranges.firstStartingAfter(editEnd);
+        int regionStart = offset;
+        int regionEnd = editEnd;
+        if (first < last) {
+            regionStart = Math.min(regionStart, ranges.starts[first]);
+            regionEnd = Math.max(regionEnd, ranges.ends[last - 1]);
+        }
+
+        String region = newText.substring(regionStart, regionEnd + delta);
+        ArrayList<ASTNode> items = new ArrayList<>();
+        Ranges regionRanges = new Ranges();
+        //Line and column of the region start, which lies before the edit, so the old positions still hold
+        long regionPosition = advance(packPosition(1, 0), text, 0, regionStart, first - 1);
+        int regionLine = line(regionPosition);
+        int regionColumn = column(regionPosition);
+        if (!parseItems(region, regionStart, regionLine, regionColumn, null, items, regionRanges)) {
+            return parse(newText, errorListener);
+        }
+
+        //The items after the edit move along with their text, nodes on the line where the edit ended also sideways
+        long oldEnd = advance(regionPosition, text, regionStart, editEnd, -1);
+        long newEnd = advance(regionPosition, newText, regionStart, offset + insertedText.length(), -1);
+        int lineDelta = line(newEnd) - line(oldEnd);
+        int columnDelta = column(newEnd) - column(oldEnd);
+
+        ArrayList<ASTNode> body = ast.root.body;
+        for (int i = first; i < last; i++) {
+            positions.remove(body.get(i));
+        }
+        body.subList(first, last).clear();
+        body.addAll(first, items);
+        ast.root.invalidateStructuralHash();
+        //The errors of the last check may be about the replaced items
+        ast.setErrorTable(null);
+        ranges.splice(first, last, regionRanges, delta, line(oldEnd), lineDelta, columnDelta);
+
+        text = newText;
+        lastReparsedLength = region.length();
+        return ast;
+    }
+
+    /*
+     * Returns the line and column of offset in source, counting from the position of from.
+     * When item is not negative, counting starts at that top-level item instead, if it lies between from and offset.
+     */
+    private long advance(long position, String source, int from, int offset, int item) {
+        if (item >= 0 && item < ast.root.body.size() && positions.contains(ast.root.body.get(item))) {
+            ASTNode node = ast.root.body.get(item);
+            int itemOffset = positions.getOffset(node);
+            if (itemOffset >= from && itemOffset <= offset) {
+                position = packPosition(positions.getLine(node), positions.getColumn(node));
+                from = itemOffset;
+            }
+        }
+        int line = line(position);
+        int column = column(position);
+        for (int i = from; i < offset; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+                column = 0;
+            } else {
+                column++;
+            }
+        }
+        return packPosition(line, column);
+    }
+
+    private static long packPosition(int line, int column) {
+        return ((long) line << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    private static int line(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int column(long position) {
+        return (int) position;
+    }
+
+    /*
+     * Parses source as a sequence of top-level items into items, and records their ranges
+     * shifted by offset and their position groups. Returns false when there was a syntax error.
+     */
+    private boolean parseItems(String source, int offset, int line, int column, ANTLRErrorListener errorListener,
+                               ArrayList<ASTNode> items, Ranges itemRanges) {
+        boolean[] failed = {false};
+        BaseErrorListener failureListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                failed[0] = true;
+                if (errorListener != null) {
+                    errorListener.syntaxError(recognizer, offendingSymbol, line, charPositionInLine, msg, e);
+                }
+            }
+        };
+        lexer.setInputStream(CharStreams.fromString(source));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(failureListener);
+        tokens.setTokenSource(lexer);
+        parser.setInputStream(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(failureListener);
+        try {
+            ICSSParser.StylesheetContext stylesheetContext = parser.stylesheet();
+            ASTListener listener = new ASTListener(names, positions, offset, line, column);
+            ParseTreeWalker.DEFAULT.walk(listener, stylesheetContext);
+            Stylesheet stylesheet = listener.getAST().root;
+            int firstItem = items.size();
+            items.addAll(stylesheet.body);
+            //Only the items are kept, so the entry of the stylesheet is freed
+            stylesheet.body.clear();
+            positions.remove(stylesheet);
+            if (failed[0]) {
+                return false;
+            }
+            int item = firstItem;
+            for (int i = 0; i < stylesheetContext.getChildCount(); i++) {
+                ParseTree child = stylesheetContext.getChild(i);
+                if (child instanceof ParserRuleContext) {
+                    ParserRuleContext context = (ParserRuleContext) child;
+                    itemRanges.add(offset + context.getStart().getStartIndex(), offset + context.getStop().getStopIndex() + 1,
+                            positions.addGroup(items.get(item++)));
+                }
+            }
+            return true;
+        } finally {
+            lexer.setInputStream(null);
+            tokens.setTokenSource(lexer);
+        }
+    }
+
+    /*
+     * Sorted, non-overlapping source ranges [start, end) of the items, in parallel arrays
+     * with the position group of each item.
+     */
+    private class Ranges {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] groups = new int[16];
+        int count = 0;
+
+        void add(int start, int end, int group) {
+            ensureCapacity(count + 1);
+            starts[count] = start;
+            ends[count] = end;
+            groups[count] = group;
+            count++;
+        }
+
+        /*
+         * Replaces ranges [first, last) with replacement and moves the ranges after it by delta.
+         * The groups of the replaced items are freed, those of the moved items move along; their
+         * column only changes when they start on editEndLine, the line where the edit ended.
+         */
+        void splice(int first, int last, Ranges replacement, int delta, int editEndLine, int lineDelta, int columnDelta) {
+            for (int i = first; i < last; i++) {
+                if (groups[i] >= 0) {
+                    positions.removeGroup(groups[i]);
+                }
+            }
+            int newCount = count - (last - first) + replacement.count;
+            ensureCapacity(newCount);
+            int moved = first + replacement.count;
+            System.arraycopy(starts, last, starts, moved, count - last);
+            System.arraycopy(ends, last, ends, moved, count - last);
+            System.arraycopy(groups, last, groups, moved, count - last);
+            System.arraycopy(replacement.starts, 0, starts, first, replacement.count);
+            System.arraycopy(replacement.ends, 0, ends, first, replacement.count);
+            System.arraycopy(replacement.groups, 0, groups, first, replacement.count);
+            for (int i = moved; i < newCount; i++) {
+                starts[i] += delta;
+                ends[i] += delta;
+                int group = groups[i];
+                if (group >= 0) {
+                    positions.moveGroup(group, delta, lineDelta,
+                            positions.getGroupLine(group) == editEndLine ? columnDelta : 0);
+                }
+            }
+            count = newCount;
+        }
+
+        int firstEndingAtOrAfter(int offset) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        int firstStartingAfter(int offset) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > starts.length) {
+                int length = Math.max(capacity, starts.length * 2);
+                starts = Arrays.copyOf(starts, length);
+                ends = Arrays.copyOf(ends, length);
+                groups = Arrays.copyOf(groups, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.checker.PropertyRegistry;
+import org.antlr.v4.runtime.Token;
+
+import java.util.HashMap;
+
+/**
+ * Gives equal names one shared String instance. The AST builders pass property names, selectors,
+ * colors and variable names through it, so a stylesheet that repeats a name in a thousand rules
+ * keeps it in memory once. Shared instances also compare by identity before String.equals looks
+ * at the characters, and their hash code is computed only once.
+ *
+ * The property names of the default PropertyRegistry are known to every table, so parsed property
+ * names are the instances the registry compares them with.
+ *
+ * A table normally lives for one compile. It can be shared between compiles (and threads) to
+ * share names across documents; it then stops adding names once it holds maxSize of them.
+ */
+public class InternTable {
+
+    public static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    //The names of the default PropertyRegistry, only read, so all tables share them without a lock
+    private static final HashMap<String, String> PROPERTY_NAMES = propertyNames();
+
+    private final HashMap<String, String> strings = new HashMap<>();
+    private final int maxSize;
+
+    public InternTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the number of names after which new names are returned as they are, without being added
+     */
+    public InternTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static HashMap<String, String> propertyNames() {
+        PropertyRegistry registry = PropertyRegistry.getDefault();
+        HashMap<String, String> names = new HashMap<>();
+        for (int i = 0; i < registry.size(); i++) {
+            names.put(registry.getName(i), registry.getName(i));
+        }
+        return names;
+    }
+
+    /**
+     * @return the shared instance equal to text, or text itself when it is new
+     */
+    public String intern(String text) {
+        String property = PROPERTY_NAMES.get(text);
+        if (property != null) {
+            return property;
+        }
+        synchronized (this) {
+            String shared = strings.get(text);
+            if (shared != null) {
+                return shared;
+            }
+            if (strings.size() < maxSize) {
+                strings.put(text, text);
+            }
+            return text;
+        }
+    }
+
+    /**
+     * @return the shared instance of the text of token
+     */
+    public String intern(Token token) {
+        return intern(token.getText());
+    }
+
+    /**
+     * @return the number of names this table added, the property names every table knows are not counted
+     */
+    public synchronized int size() {
+        return strings.size();
+    }
+}
@@ -0,0 +1,58 @@
+package nl.han.ica.icss.parser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often each parse stage ran. In two-stage mode every parse first tries
+ * the SLL stage; only when that bails out the input is parsed again with full LL.
+ */
+public class ParseStatistics {
+
+    private final AtomicLong sllParses = new AtomicLong();
+    private final AtomicLong llFallbacks = new AtomicLong();
+    private final AtomicLong llParses = new AtomicLong();
+
+    public void recordSllParse() {
+        sllParses.incrementAndGet();
+    }
+
+    public void recordLlFallback() {
+        llFallbacks.incrementAndGet();
+    }
+
+    public void recordLlParse() {
+        llParses.incrementAndGet();
+    }
+
+    /**
+     * @return number of parses that succeeded in the SLL stage
+     */
+    public long getSllParses() {
+        return sllParses.get();
+    }
+
+    /**
+     * @return number of parses where SLL bailed out and full LL was used instead
+     */
+    public long getLlFallbacks() {
+        return llFallbacks.get();
+    }
+
+    /**
+     * @return number of parses that used full LL only, without trying SLL first
+     */
+    public long getLlParses() {
+        return llParses.get();
+    }
+
+    public void reset() {
+        sllParses.set(0);
+        llFallbacks.set(0);
+        llParses.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SLL: " + getSllParses() + ", LL fallback: " + getLlFallbacks() + ", LL only: " + getLlParses();
+    }
+}
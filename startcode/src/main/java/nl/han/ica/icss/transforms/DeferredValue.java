@@ -0,0 +1,57 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.Literal;
+import nl.han.ica.icss.ast.Operation;
+import nl.han.ica.icss.checker.Resolver;
+
+/**
+ * Stands in the frame of the Evaluator for a global variable whose operation has not been
+ * calculated yet. The first read calculates it and the value is kept for all later reads, also
+ * those of rules on other threads, which see the same DeferredValue through their copy of the frame.
+ *
+ * The Evaluator only defers a variable that is assigned once and is computed from variables
+ * that are assigned once, before it. Then the frame it was assigned in still holds the values
+ * the operation needs when it is calculated later, even though other slots of the frame change.
+ *
+ * It is no Expression, so it cannot end up in a tree or be taken for a value by code that
+ * checks for a Literal. Only the frames of the Evaluator hold it.
+ */
+final class DeferredValue {
+
+    private final Operation operation;
+    private final Object[] frame;
+    private final Resolver resolver;
+    private volatile Literal value;
+    private volatile boolean calculated = false;
+
+    DeferredValue(Operation operation, Object[] frame, Resolver resolver) {
+        this.operation = operation;
+        this.frame = frame;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return the value of the operation, null when it has no unit
+     */
+    Literal get() {
+        if (!calculated) {
+            //Two threads may both calculate it, they get the same value
+            ExpressionProgram program = ExpressionProgram.compile(operation);
+            value = program.run(frame, null, resolver, new int[program.getMaxDepth()], new int[program.getMaxDepth()]);
+            calculated = true;
+        }
+        return value;
+    }
+
+    boolean isCalculated() {
+        return calculated;
+    }
+
+    /**
+     * @param value a value of a frame of the Evaluator, a Literal, a DeferredValue or null
+     * @return value itself, or the calculated value when it is a DeferredValue
+     */
+    static Literal resolve(Object value) {
+        return value instanceof DeferredValue ? ((DeferredValue) value).get() : (Literal) value;
+    }
+}
@@ -1,106 +1,296 @@
 package nl.han.ica.icss.transforms;
 
-import nl.han.ica.datastructures.HANLinkedList;
-import nl.han.ica.datastructures.IHANLinkedList;
 import nl.han.ica.icss.ast.*;
 import nl.han.ica.icss.ast.literals.BoolLiteral;
-import nl.han.ica.icss.ast.literals.PercentageLiteral;
-import nl.han.ica.icss.ast.literals.PixelLiteral;
-import nl.han.ica.icss.ast.literals.ScalarLiteral;
-import nl.han.ica.icss.ast.operations.AddOperation;
-import nl.han.ica.icss.ast.operations.MultiplyOperation;
-import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.checker.Resolver;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Evaluator implements Transform {
 
-    private IHANLinkedList<HashMap<String, Literal>> variableValues;
+    //The number of top level items below which a parallel transform stops splitting the work
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    //The values of the global variables by slot of resolver: a Literal, a DeferredValue or null for
+    //variables without a value. Deferred values are kept out of the Expression types, so no tree sees them.
+    //Rules only read it, so they can share it
+    private Object[] variableValues;
+    //The values of the variables of the rule being evaluated, see Resolver.newLocalFrame
+    private Object[] localValues;
+    //The resolver that bound the tree being evaluated
+    private Resolver resolver;
+    //The operations compiled so far, kept so evaluating the same tree again does not compile them again.
+    //With a cache these are the programs of the item being evaluated
+    private IdentityHashMap<Operation, ExpressionProgram> programs;
+    private ProgramCache cache;
+    //Whether programs is shared with other evaluators, then it is only read
+    private final boolean programsShared;
+    //The operand stacks of the programs
+    private int[] unitStack = new int[16];
+    private int[] valueStack = new int[16];
 
     public Evaluator() {
-        variableValues = new HANLinkedList<>();
+        variableValues = new Object[0];
+        programs = new IdentityHashMap<>();
+        programsShared = false;
+    }
 
+    /**
+     * An evaluator that takes its programs from compiled, which may be shared between threads.
+     * @param resolver the resolver that bound the tree the operations of compiled belong to
+     */
+    Evaluator(IdentityHashMap<Operation, ExpressionProgram> compiled, Resolver resolver) {
+        variableValues = new Object[0];
+        this.resolver = resolver;
+        programs = compiled;
+        programsShared = true;
     }
 
+    /**
+     * Keeps the compiled operations of every top level item in cache, and takes those of items that
+     * did not change from it, also when this evaluator is not used again. Use one cache per document.
+     * @param cache the cache to use, or null to keep the programs in this evaluator only
+     */
+    public void setCache(ProgramCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Evaluates all variables, operations and if clauses into a new AST. Nodes that do not change
+     * are shared with ast, which itself is left as it is, so the checked tree can be used again.
+     *
+     * A global variable that is assigned once, from variables assigned once before it, is only
+     * calculated when something reads it. The assignments of such variables that nothing read
+     * keep their operation in the new AST.
+     */
     @Override
-    public void apply(AST ast) {
-        variableValues = new HANLinkedList<>();
+    public AST transform(AST ast) {
+        return transform(ast, null);
+    }
+
+    /**
+     * Transforms ast like transform(AST), but evaluates the stylerules on pool at the same time. The
+     * globals are evaluated first and every rule gets a snapshot of the global frame before it, which
+     * is all a rule reads. The result is the same as that of a sequential transform.
+     * @param pool the pool to evaluate the rules on, or null to evaluate them one after the other
+     */
+    public AST transform(AST ast, ForkJoinPool pool) {
+        resolver = new Resolver();
+        resolver.resolve(ast);
+        variableValues = new Object[resolver.getGlobalCount()];
+        boolean[] assigned = new boolean[resolver.getGlobalCount()];
         Stylesheet stylesheet = ast.root;
-        addScope(1);
+        ArrayList<ASTNode> transformedBody = new ArrayList<>();
+        IdentityHashMap<Operation, ExpressionProgram> ownPrograms = programs;
+        IdentityHashMap<ASTNode, ProgramCache.Entry> cacheEntries = cache == null ? null : cache.begin();
+
+        if(pool == null){
+            for(ASTNode childNode: stylesheet.body){
+                programs = programsOf(childNode, cacheEntries, ownPrograms);
+                if(childNode instanceof Stylerule){
+                    transformedBody.add(transformStyleRule((Stylerule) childNode));
+                } else if (childNode instanceof VariableAssignment){
+                    transformedBody.add(addGlobalAssignment((VariableAssignment) childNode, assigned));
+                } else {
+                    transformedBody.add(childNode);
+                }
+            }
+        } else {
+            int size = stylesheet.body.size();
+            ASTNode[] transformedItems = new ASTNode[size];
+            Object[][] globalScopes = new Object[size][];
+            ProgramCache.Entry[] ruleEntries = cache == null ? null : new ProgramCache.Entry[size];
+            boolean snapshotTaken = false;
+            for(int i = 0; i < size; i++){
+                ASTNode childNode = stylesheet.body.get(i);
+                if(childNode instanceof Stylerule){
+                    globalScopes[i] = variableValues;
+                    snapshotTaken = true;
+                    if(cache != null){
+                        ruleEntries[i] = cache.get(childNode, cacheEntries);
+                    }
+                } else if (childNode instanceof VariableAssignment){
+                    //Copy on write, so the snapshots of earlier rules stay as they were
+                    if(snapshotTaken){
+                        variableValues = variableValues.clone();
+                        snapshotTaken = false;
+                    }
+                    programs = programsOf(childNode, cacheEntries, ownPrograms);
+                    transformedItems[i] = addGlobalAssignment((VariableAssignment) childNode, assigned);
+                } else {
+                    transformedItems[i] = childNode;
+                }
+            }
+            pool.invoke(new RuleTransform(stylesheet.body, resolver, globalScopes, ruleEntries, transformedItems, 0, size));
+            transformedBody.addAll(Arrays.asList(transformedItems));
+        }
+        programs = ownPrograms;
+        if(cache != null){
+            cache.update(cacheEntries);
+        }
+        //Deferred globals that were read get their value in the new tree
+        for(int i = 0; i < transformedBody.size(); i++){
+            if(transformedBody.get(i) instanceof VariableAssignment){
+                VariableAssignment varAssignment = (VariableAssignment) transformedBody.get(i);
+                Object value = getVarValue(varAssignment.name);
+                if(value instanceof DeferredValue && ((DeferredValue) value).isCalculated()){
+                    transformedBody.set(i, transformVarAssignment(varAssignment, ((DeferredValue) value).get()));
+                }
+            }
+        }
+        //New nodes keep the source id of the node they replace, so they share the positions table
+        Stylesheet transformedStylesheet = new Stylesheet(transformedBody);
+        transformedStylesheet.setSourceId(stylesheet.getSourceId());
+        AST transformed = new AST(transformedStylesheet);
+        transformed.setSourcePositions(ast.getSourcePositions());
+        return transformed;
+    }
 
-        for(ASTNode childNode: stylesheet.body){
-            if(childNode instanceof Stylerule){
-                transformStyleRule((Stylerule) childNode);
-            } else if (childNode instanceof VariableAssignment){
-                addVarAssignment(1, (VariableAssignment) childNode);
+    //Evaluates the rules between from and to, each with its own snapshot of the globals, into transformed
+    private static class RuleTransform extends RecursiveAction {
+        private final ArrayList<ASTNode> items;
+        private final Resolver resolver;
+        private final Object[][] globalScopes;
+        //The cached programs per rule, null without a cache
+        private final ProgramCache.Entry[] ruleEntries;
+        private final ASTNode[] transformed;
+        private final int from;
+        private final int to;
+
+        RuleTransform(ArrayList<ASTNode> items, Resolver resolver, Object[][] globalScopes, ProgramCache.Entry[] ruleEntries,
+                      ASTNode[] transformed, int from, int to) {
+            this.items = items;
+            this.resolver = resolver;
+            this.globalScopes = globalScopes;
+            this.ruleEntries = ruleEntries;
+            this.transformed = transformed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > PARALLEL_THRESHOLD){
+                int middle = (from + to) >>> 1;
+                invokeAll(new RuleTransform(items, resolver, globalScopes, ruleEntries, transformed, from, middle),
+                        new RuleTransform(items, resolver, globalScopes, ruleEntries, transformed, middle, to));
+                return;
+            }
+            Evaluator evaluator = new Evaluator();
+            evaluator.resolver = resolver;
+            for(int i = from; i < to; i++){
+                if(items.get(i) instanceof Stylerule){
+                    evaluator.variableValues = globalScopes[i];
+                    if(ruleEntries != null){
+                        evaluator.programs = ruleEntries[i].programs;
+                    }
+                    transformed[i] = evaluator.transformStyleRule((Stylerule) items.get(i));
+                }
             }
         }
-        removeScope(1);
     }
 
-    private void transformStyleRule(Stylerule stylerule) {
+    //The programs to evaluate item with: those cached for it, or the programs of this evaluator without a cache
+    private IdentityHashMap<Operation, ExpressionProgram> programsOf(ASTNode item, IdentityHashMap<ASTNode, ProgramCache.Entry> cacheEntries,
+                                                                     IdentityHashMap<Operation, ExpressionProgram> ownPrograms) {
+        return cache == null ? ownPrograms : cache.get(item, cacheEntries).programs;
+    }
+
+    //The steps of transform for a ThemeEvaluator, which walks a resolved tree itself
+
+    void startGlobals(int globalCount) {
+        variableValues = new Object[globalCount];
+    }
+
+    void setGlobal(int slot, Literal value) {
+        setVariable(slot, value);
+    }
+
+    void assignGlobal(VariableAssignment varAssignment) {
+        addVarAssignment(varAssignment);
+    }
+
+    Stylerule evaluateRule(Stylerule stylerule) {
+        return transformStyleRule(stylerule);
+    }
+
+    private Stylerule transformStyleRule(Stylerule stylerule) {
         ArrayList<ASTNode> transformedRule = new ArrayList<>();
-        int depth = 2;
-        addScope(depth);
+        //If clauses share the local frame of their rule
+        localValues = resolver.newLocalFrame(stylerule, variableValues);
 
         for(ASTNode childofStyleRule: stylerule.body){
-            transformStyleRuleChildren(depth, childofStyleRule, transformedRule);
+            transformStyleRuleChildren(childofStyleRule, transformedRule);
+        }
+        localValues = null;
+        if(sameNodes(transformedRule, stylerule.body)){
+            return stylerule;
         }
-        removeScope(depth);
-        stylerule.body = transformedRule;
+        Stylerule transformed = new Stylerule();
+        transformed.setSourceId(stylerule.getSourceId());
+        transformed.selectors = new ArrayList<>(stylerule.selectors);
+        transformed.body = transformedRule;
+        return transformed;
     }
 
-    private void transformStyleRuleChildren(int depth, ASTNode childNode, ArrayList<ASTNode> transformedRule) {
+    private boolean sameNodes(ArrayList<ASTNode> transformed, ArrayList<ASTNode> original) {
+        if(transformed.size() != original.size()){
+            return false;
+        }
+        for(int i = 0; i < transformed.size(); i++){
+            if(transformed.get(i) != original.get(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void transformStyleRuleChildren(ASTNode childNode, ArrayList<ASTNode> transformedRule) {
         if(childNode instanceof Declaration){
-            transformDeclaration((Declaration) childNode, transformedRule);
+            transformedRule.add(transformDeclaration((Declaration) childNode));
         }
 
         if(childNode instanceof VariableAssignment){
-            addVarAssignment(depth, (VariableAssignment) childNode);
+            addVarAssignment((VariableAssignment) childNode);
         }
 
         if(childNode instanceof IfClause){
             IfClause ifClause = (IfClause) childNode;
-            ifClause.conditionalExpression = transformIfExpression(ifClause);
+            Literal condition = transformIfExpression(ifClause);
 
-            if(((BoolLiteral) ifClause.conditionalExpression).value) {
-                if (ifClause.elseClause != null) {
-                    ifClause.elseClause.body = new ArrayList<>();
-                }
+            //Only the chosen branch ends up in the rule
+            ArrayList<ASTNode> branch;
+            if(((BoolLiteral) condition).value) {
+                branch = ifClause.body;
+            } else if(ifClause.elseClause == null) {
+                branch = new ArrayList<>();
             } else {
-                if(ifClause.elseClause == null) {
-                    ifClause.body = new ArrayList<>();
-                } else {
-                    ifClause.body = ifClause.elseClause.body;
-                    ifClause.elseClause.body = new ArrayList<>();
-                }
+                branch = ifClause.elseClause.body;
+            }
+            for(ASTNode branchNode: branch){
+                transformStyleRuleChildren(branchNode, transformedRule);
             }
-            transformIfClause(depth, ifClause, transformedRule);
         }
     }
 
-    private void transformDeclaration(Declaration decl, ArrayList<ASTNode> transformedRule) {
+    private Declaration transformDeclaration(Declaration decl) {
+        Expression value;
         if(decl.expression instanceof Operation) {
-            decl.expression = calculate((Operation) decl.expression);
-            transformExpression(decl, transformedRule);
+            value = calculate((Operation) decl.expression);
         } else if(decl.expression instanceof VariableReference){
-            decl.expression = getVarLiteral((VariableReference) decl.expression);
-            transformExpression(decl, transformedRule);
+            value = getVarLiteral((VariableReference) decl.expression);
         } else {
-            transformExpression(decl, transformedRule);
-        }
-    }
-
-    private void transformExpression(Declaration decl, ArrayList<ASTNode> transformedRule) {
-        transformedRule.add(decl);
-    }
-
-    private void transformIfClause(int depth, IfClause ifClause, ArrayList<ASTNode> transformedRule) {
-        for(ASTNode childNode: ifClause.getChildren()){
-            transformStyleRuleChildren(depth, childNode, transformedRule);
+            return decl;
         }
+        Declaration transformed = new Declaration();
+        transformed.setSourceId(decl.getSourceId());
+        transformed.property = decl.property;
+        transformed.expression = value;
+        return transformed;
     }
 
     private Literal transformIfExpression(IfClause ifClause) {
@@ -110,88 +300,87 @@ public class Evaluator implements Transform {
         return (BoolLiteral) ifClause.conditionalExpression;
     }
 
+    //Runs the compiled form of op, which is compiled the first time this evaluator meets it
     private Literal calculate(Operation op) {
-        Expression leftValue = op.lhs;
-        Expression rightValue = op.rhs;
-
-        if(leftValue instanceof Operation){
-            leftValue = calculate((Operation) leftValue);
-        }
-        if(rightValue instanceof Operation){
-            rightValue = calculate((Operation) rightValue);
-        }
-
-        if(leftValue instanceof VariableReference){
-            leftValue = getVarLiteral((VariableReference) leftValue);
+        ExpressionProgram program = programs.get(op);
+        if(program == null){
+            program = ExpressionProgram.compile(op);
+            if(!programsShared){
+                programs.put(op, program);
+            }
         }
-        if(rightValue instanceof VariableReference){
-            rightValue = getVarLiteral((VariableReference) rightValue);
+        if(program.getMaxDepth() > unitStack.length){
+            unitStack = new int[program.getMaxDepth()];
+            valueStack = new int[program.getMaxDepth()];
         }
+        return program.run(variableValues, localValues, resolver, unitStack, valueStack);
+    }
 
-        if(leftValue instanceof PercentageLiteral || rightValue instanceof PercentageLiteral){
-            return new PercentageLiteral(calcValue(op, getValue(leftValue), getValue(rightValue)));
-        } else if (leftValue instanceof PixelLiteral || rightValue instanceof PixelLiteral){
-            return new PixelLiteral(calcValue(op, getValue(leftValue), getValue(rightValue)));
-        } else if (leftValue instanceof ScalarLiteral && rightValue instanceof ScalarLiteral){
-            return new ScalarLiteral(calcValue(op, getValue(leftValue), getValue(rightValue)));
-        }
-        return null;
+    private Literal getVarLiteral(VariableReference varRef) {
+        return DeferredValue.resolve(getVarValue(varRef));
     }
 
-    private int calcValue(Operation op, int leftValue, int rightValue) {
-        if(op instanceof MultiplyOperation){
-            return leftValue * rightValue;
-        } else if(op instanceof SubtractOperation){
-            return leftValue - rightValue;
-        } else if(op instanceof AddOperation){
-            return leftValue + rightValue;
-        }
-        return 0;
+    //The Literal or DeferredValue of varRef
+    private Object getVarValue(VariableReference varRef) {
+        return ExpressionProgram.valueIn(variableValues, localValues, resolver.getGlobalCount(), resolver.getSlot(varRef));
     }
 
-    private int getValue(Expression value){
-        if(value instanceof ScalarLiteral){
-            return ((ScalarLiteral) value).value;
-        } else if(value instanceof PixelLiteral){
-            return ((PixelLiteral) value).value;
-        } else if(value instanceof PercentageLiteral){
-            return ((PercentageLiteral) value).value;
-        } else if(value instanceof VariableReference){
-            return getValue(getVarLiteral((VariableReference) value));
+    //Defers the operation of a global that is assigned once from variables that are assigned once before it
+    private VariableAssignment addGlobalAssignment(VariableAssignment varAssignment, boolean[] assigned) {
+        int slot = resolver.getSlot(varAssignment.name);
+        boolean deferrable = varAssignment.expression instanceof Operation
+                && resolver.getAssignmentCount(slot) == 1
+                && readsAssignedOnce(varAssignment.expression, assigned);
+        if(slot >= 0 && slot < assigned.length){
+            assigned[slot] = true;
+        }
+        if(!deferrable){
+            return addVarAssignment(varAssignment);
         }
-        return 0;
+        setVariable(slot, new DeferredValue((Operation) varAssignment.expression, variableValues, resolver));
+        return varAssignment;
     }
 
-    private Literal getVarLiteral(VariableReference varRef) {
-        for(int i = variableValues.getSize(); i >= 1; i--){
-            HashMap<String, Literal> hash = variableValues.get(i);
-            if(hash.containsKey(varRef.name)){
-                return hash.get(varRef.name);
+    private boolean readsAssignedOnce(ASTNode node, boolean[] assigned) {
+        if(node instanceof VariableReference){
+            int slot = resolver.getSlot((VariableReference) node);
+            return slot >= 0 && slot < assigned.length && assigned[slot] && resolver.getAssignmentCount(slot) == 1;
+        }
+        for(int i = 0; i < node.childCount(); i++){
+            ASTNode child = node.childAt(i);
+            if(child != null && !readsAssignedOnce(child, assigned)){
+                return false;
             }
         }
-        return null;
+        return true;
     }
 
-    private void addVarAssignment(int depth, VariableAssignment varAssignment) {
+    private VariableAssignment addVarAssignment(VariableAssignment varAssignment) {
         Expression exp = varAssignment.expression;
         if(exp instanceof Operation){
             Literal calculatedExp = calculate((Operation) exp);
-            variableValues.get(depth).put(varAssignment.name.name, calculatedExp);
-            transformVarAssignment(varAssignment, calculatedExp);
+            setVariable(resolver.getSlot(varAssignment.name), calculatedExp);
+            return transformVarAssignment(varAssignment, calculatedExp);
         } else if (exp instanceof Literal){
-            variableValues.get(depth).put(varAssignment.name.name, (Literal) varAssignment.expression);
+            setVariable(resolver.getSlot(varAssignment.name), (Literal) varAssignment.expression);
         }
+        return varAssignment;
     }
 
-    private void transformVarAssignment(VariableAssignment varAssignment, Literal calculatedExp) {
-        varAssignment.expression = calculatedExp;
-    }
-
-    private void addScope(int depth){
-        variableValues.insert(depth, new HashMap<>());
+    //Outside a rule the slot is global, inside one it is local
+    private void setVariable(int slot, Object value) {
+        if(localValues == null){
+            variableValues[slot] = value;
+        } else {
+            localValues[slot - resolver.getGlobalCount()] = value;
+        }
     }
 
-    private void removeScope(int depth){
-        variableValues.delete(depth);
+    private VariableAssignment transformVarAssignment(VariableAssignment varAssignment, Literal calculatedExp) {
+        VariableAssignment transformed = new VariableAssignment();
+        transformed.setSourceId(varAssignment.getSourceId());
+        transformed.name = varAssignment.name;
+        transformed.expression = calculatedExp;
+        return transformed;
     }
 }
@@ -0,0 +1,215 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.Expression;
+import nl.han.ica.icss.ast.Literal;
+import nl.han.ica.icss.ast.Operation;
+import nl.han.ica.icss.ast.VariableReference;
+import nl.han.ica.icss.ast.literals.PercentageLiteral;
+import nl.han.ica.icss.ast.literals.PixelLiteral;
+import nl.han.ica.icss.ast.literals.ScalarLiteral;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.checker.Resolver;
+
+import java.util.Arrays;
+
+/**
+ * An operation compiled to int opcodes for a stack machine with two int stacks, one with the
+ * unit and one with the value of every operand. Running it allocates nothing but the literal
+ * of the result, however deep the operation is.
+ *
+ * The units follow the Evaluator: a percentage on either side gives a percentage, otherwise a
+ * pixel on either side gives pixels, two scalars give a scalar and anything else gives no value,
+ * which counts as 0 further up. Colors and booleans count as no value. Operations other than
+ * add, subtract and multiply give the unit of their sides with the value 0.
+ */
+class ExpressionProgram {
+
+    static final int UNIT_NONE = 0;
+    static final int UNIT_SCALAR = 1;
+    static final int UNIT_PIXEL = 2;
+    static final int UNIT_PERCENTAGE = 3;
+
+    //PUSH unit value, LOAD variable, the others take their two operands from the stacks
+    private static final int PUSH = 0;
+    private static final int LOAD = 1;
+    private static final int ADD = 2;
+    private static final int SUBTRACT = 3;
+    private static final int MULTIPLY = 4;
+    private static final int OTHER = 5;
+
+    private final int[] code;
+    //LOAD refers to these by index, their slot is looked up when the program runs so it follows the Resolver
+    private final VariableReference[] variables;
+    private final int maxDepth;
+
+    private ExpressionProgram(int[] code, VariableReference[] variables, int maxDepth) {
+        this.code = code;
+        this.variables = variables;
+        this.maxDepth = maxDepth;
+    }
+
+    static ExpressionProgram compile(Operation operation) {
+        Compiler compiler = new Compiler();
+        compiler.compile(operation);
+        return new ExpressionProgram(compiler.code(), compiler.variables(), compiler.maxDepth);
+    }
+
+    /**
+     * @return the number of operands the stacks must have room for
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Runs the program.
+     * @param globals the values of the global variables by slot of resolver, a Literal or a DeferredValue
+     * @param locals the values of the variables of the rule, see Resolver.newLocalFrame, or null outside a rule
+     * @param resolver the resolver that bound the tree of the operation
+     * @param units the unit stack, at least getMaxDepth() long
+     * @param values the value stack, at least getMaxDepth() long
+     * @return the value of the operation, or null when it has no unit
+     */
+    Literal run(Object[] globals, Object[] locals, Resolver resolver, int[] units, int[] values) {
+        int globalCount = resolver.getGlobalCount();
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            if (opcode == PUSH) {
+                top++;
+                units[top] = code[pc + 1];
+                values[top] = code[pc + 2];
+                pc += 3;
+            } else if (opcode == LOAD) {
+                int slot = resolver.getSlot(variables[code[pc + 1]]);
+                Literal value = DeferredValue.resolve(valueIn(globals, locals, globalCount, slot));
+                top++;
+                units[top] = unitOf(value);
+                values[top] = valueOf(value);
+                pc += 2;
+            } else {
+                int rightUnit = units[top];
+                int rightValue = values[top];
+                top--;
+                int leftUnit = units[top];
+                int leftValue = values[top];
+                int unit = Math.max(leftUnit, rightUnit);
+                if (unit < UNIT_PIXEL) {
+                    unit = Math.min(leftUnit, rightUnit);
+                }
+                units[top] = unit;
+                if (unit == UNIT_NONE) {
+                    values[top] = 0;
+                } else if (opcode == ADD) {
+                    values[top] = leftValue + rightValue;
+                } else if (opcode == SUBTRACT) {
+                    values[top] = leftValue - rightValue;
+                } else if (opcode == MULTIPLY) {
+                    values[top] = leftValue * rightValue;
+                } else {
+                    values[top] = 0;
+                }
+                pc++;
+            }
+        }
+        return literalOf(units[0], values[0]);
+    }
+
+    static int unitOf(Expression value) {
+        if (value instanceof PercentageLiteral) return UNIT_PERCENTAGE;
+        if (value instanceof PixelLiteral) return UNIT_PIXEL;
+        if (value instanceof ScalarLiteral) return UNIT_SCALAR;
+        return UNIT_NONE;
+    }
+
+    static int valueOf(Expression value) {
+        if (value instanceof PercentageLiteral) return ((PercentageLiteral) value).value;
+        if (value instanceof PixelLiteral) return ((PixelLiteral) value).value;
+        if (value instanceof ScalarLiteral) return ((ScalarLiteral) value).value;
+        return 0;
+    }
+
+    //The value in slot of the global or the local frame, null when slot is in neither
+    static Object valueIn(Object[] globals, Object[] locals, int globalCount, int slot) {
+        if (slot < 0) {
+            return null;
+        }
+        if (slot < globalCount) {
+            return slot < globals.length ? globals[slot] : null;
+        }
+        return locals != null && slot - globalCount < locals.length ? locals[slot - globalCount] : null;
+    }
+
+    static Literal literalOf(int unit, int value) {
+        switch (unit) {
+            case UNIT_PERCENTAGE: return new PercentageLiteral(value);
+            case UNIT_PIXEL: return new PixelLiteral(value);
+            case UNIT_SCALAR: return new ScalarLiteral(value);
+            default: return null;
+        }
+    }
+
+    //Emits the operands before their operation, so the program is the operation in post-order
+    private static class Compiler {
+        private int[] code = new int[16];
+        private int length = 0;
+        private VariableReference[] variables = new VariableReference[4];
+        private int variableCount = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        void compile(Expression expression) {
+            if (expression instanceof Operation) {
+                Operation operation = (Operation) expression;
+                compile(operation.lhs);
+                compile(operation.rhs);
+                if (operation instanceof AddOperation) {
+                    emit(ADD);
+                } else if (operation instanceof SubtractOperation) {
+                    emit(SUBTRACT);
+                } else if (operation instanceof MultiplyOperation) {
+                    emit(MULTIPLY);
+                } else {
+                    emit(OTHER);
+                }
+                depth--;
+            } else if (expression instanceof VariableReference) {
+                if (variableCount == variables.length) {
+                    variables = Arrays.copyOf(variables, variableCount * 2);
+                }
+                variables[variableCount] = (VariableReference) expression;
+                emit(LOAD);
+                emit(variableCount++);
+                push();
+            } else {
+                emit(PUSH);
+                emit(unitOf(expression));
+                emit(valueOf(expression));
+                push();
+            }
+        }
+
+        private void push() {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void emit(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = value;
+        }
+
+        int[] code() {
+            return Arrays.copyOf(code, length);
+        }
+
+        VariableReference[] variables() {
+            return Arrays.copyOf(variables, variableCount);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.checker.PropertyRegistry;
+import nl.han.ica.icss.generator.Generator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Makes the CSS of an evaluated AST smaller without changing what it styles:
+ * <ul>
+ *     <li>a declaration is dropped when a later one in the same rule sets the same property</li>
+ *     <li>a rule is merged into an earlier rule with the same selectors</li>
+ *     <li>rules with the same declarations become one rule with the selectors of both</li>
+ *     <li>rules without declarations are dropped</li>
+ * </ul>
+ * Merging moves the declarations of the later rule up to the earlier one, which is only done
+ * when no rule in between sets one of the same longhand properties. The longhands of shorthands
+ * (inset sets top, gap sets row-gap) and of logical properties (inline-size sets width or height,
+ * as the writing mode decides) come from a table. The properties of the PropertyRegistry that are
+ * not in it set only themselves. A declaration of any other property is never moved past a
+ * declaration, and nothing moves past it. Rules that still hold anything but declarations of
+ * literals, because the tree was not evaluated, are never moved and nothing moves past them.
+ *
+ * Rules and declaration blocks are found through hash maps on their structural hashes, so the
+ * transform takes about linear time.
+ */
+public class Optimizer implements Transform {
+
+    //The longhands each shorthand or logical property may set, a logical one every physical one it can be
+    private static final HashMap<String, String[]> LONGHANDS = new HashMap<>();
+    //Every longhand in LONGHANDS
+    private static final HashSet<String> KNOWN_LONGHANDS = new HashSet<>();
+    //The properties not in LONGHANDS that are known to set only themselves
+    private static final PropertyRegistry REGISTRY = PropertyRegistry.getDefault();
+
+    static {
+        String[] logicalSides = {"-block", "-inline", "-block-start", "-block-end", "-inline-start", "-inline-end"};
+        for (String box : new String[]{"margin", "padding", "scroll-margin", "scroll-padding"}) {
+            setsAll(sides(box + "-%s"), box, logicalSides);
+        }
+        setsAll(sides("%s"), "inset", logicalSides);
+        ArrayList<String> border = new ArrayList<>();
+        for (String part : new String[]{"width", "style", "color"}) {
+            String[] parts = sides("border-%s-" + part);
+            border.addAll(Arrays.asList(parts));
+            sets("border-" + part, parts);
+            for (String logical : logicalSides) {
+                sets("border" + logical + "-" + part, parts);
+            }
+        }
+        for (String side : sides("%s")) {
+            sets("border-" + side, "border-" + side + "-width", "border-" + side + "-style", "border-" + side + "-color");
+        }
+        String[] borderSides = border.toArray(new String[0]);
+        for (String logical : logicalSides) {
+            sets("border" + logical, borderSides);
+        }
+        border.add("border-image");
+        sets("border", border.toArray(new String[0]));
+        String[] corners = {"border-top-left-radius", "border-top-right-radius", "border-bottom-right-radius", "border-bottom-left-radius"};
+        for (String radius : new String[]{"border-radius", "border-start-start-radius", "border-start-end-radius",
+                "border-end-start-radius", "border-end-end-radius"}) {
+            sets(radius, corners);
+        }
+        for (String size : new String[]{"", "min-", "max-"}) {
+            sets(size + "inline-size", size + "width", size + "height");
+            sets(size + "block-size", size + "width", size + "height");
+        }
+        sets("gap", "row-gap", "column-gap");
+        sets("grid-gap", "row-gap", "column-gap");
+        sets("columns", "column-width", "column-count");
+        sets("column-rule", "column-rule-width", "column-rule-style", "column-rule-color");
+        sets("outline", "outline-width", "outline-style", "outline-color");
+        sets("background", "background-color", "background-image", "background-position-x", "background-position-y",
+                "background-size", "background-repeat", "background-attachment", "background-origin", "background-clip");
+        sets("background-position", "background-position-x", "background-position-y");
+        sets("font", "font-style", "font-variant", "font-weight", "font-stretch", "font-size", "line-height", "font-family");
+        sets("flex", "flex-grow", "flex-shrink", "flex-basis");
+        sets("text-decoration", "text-decoration-line", "text-decoration-style", "text-decoration-color", "text-decoration-thickness");
+        sets("text-emphasis", "text-emphasis-style", "text-emphasis-color");
+        sets("caret", "caret-color", "caret-shape");
+    }
+
+    private long bytesBefore;
+    private long bytesAfter;
+
+    @Override
+    public AST transform(AST ast) {
+        ArrayList<Object> merged = merge(ast.root.body, false);
+        ArrayList<Object> grouped = merge(merged, true);
+
+        ArrayList<ASTNode> body = new ArrayList<>();
+        for (Object item : grouped) {
+            if (item instanceof Block) {
+                body.add(((Block) item).toStylerule());
+            } else {
+                body.add((ASTNode) item);
+            }
+        }
+        Stylesheet stylesheet = new Stylesheet(body);
+        stylesheet.setSourceId(ast.root.getSourceId());
+        AST optimized = new AST(stylesheet);
+        optimized.setSourcePositions(ast.getSourcePositions());
+
+        bytesBefore = sizeOf(ast);
+        bytesAfter = sizeOf(optimized);
+        return optimized;
+    }
+
+    /**
+     * @return the size in bytes of the CSS of the last transformed AST, before it was optimized
+     */
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    /**
+     * @return the size in bytes of the CSS of the last optimized AST
+     */
+    public long getBytesAfter() {
+        return bytesAfter;
+    }
+
+    /**
+     * @return how many bytes of CSS the last transform saved
+     */
+    public long getBytesSaved() {
+        return bytesBefore - bytesAfter;
+    }
+
+    private static long sizeOf(AST ast) {
+        return new Generator().generate(ast).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /*
+     Merges the blocks of items into earlier blocks with the same key where the cascade allows it.
+     The key is the selectors of a block, or its declarations when grouping. Items are the nodes of
+     the stylesheet at first, Blocks and the nodes that are not rules after that.
+      */
+    private ArrayList<Object> merge(List<?> items, boolean grouping) {
+        ArrayList<Object> result = new ArrayList<>();
+        HashMap<List<? extends ASTNode>, Integer> targets = new HashMap<>();
+        Setters setters = new Setters();
+        //The index in result of the last rule that nothing may move past
+        int barrier = -1;
+
+        for (Object item : items) {
+            Block block = item instanceof Block ? (Block) item : Block.of(item);
+            if (block == null) {
+                if (item instanceof Stylerule) {
+                    barrier = result.size();
+                }
+                result.add(item);
+                continue;
+            }
+            if (!grouping) {
+                block.removeOverridden();
+            }
+            if (block.declarations.isEmpty()) {
+                continue;
+            }
+            List<? extends ASTNode> key = grouping ? block.declarations : block.selectors;
+            Integer target = targets.get(key);
+            if (target != null && target > barrier && !setters.setAfter(block, target)) {
+                Block into = (Block) result.get(target);
+                if (grouping) {
+                    into.addSelectors(block);
+                } else {
+                    into.addDeclarations(block);
+                    into.removeOverridden();
+                }
+            } else {
+                target = result.size();
+                result.add(block);
+                targets.put(key, target);
+            }
+            setters.add(block, target);
+        }
+        return result;
+    }
+
+    //The four physical sides in the pattern, "margin-%s" gives margin-top, margin-right, margin-bottom, margin-left
+    private static String[] sides(String pattern) {
+        return new String[]{String.format(pattern, "top"), String.format(pattern, "right"),
+                String.format(pattern, "bottom"), String.format(pattern, "left")};
+    }
+
+    //The property and its logical forms, the property with each suffix, all set longhands
+    private static void setsAll(String[] longhands, String property, String[] logicalSuffixes) {
+        sets(property, longhands);
+        for (String suffix : logicalSuffixes) {
+            sets(property + suffix, longhands);
+        }
+    }
+
+    private static void sets(String property, String... longhands) {
+        LONGHANDS.put(property, longhands);
+        KNOWN_LONGHANDS.addAll(Arrays.asList(longhands));
+    }
+
+    //The longhands property sets, or null when it is not known what it sets
+    private static String[] longhandsOf(String property) {
+        String[] longhands = LONGHANDS.get(property);
+        if (longhands == null && (KNOWN_LONGHANDS.contains(property) || REGISTRY.indexOf(property) != -1)) {
+            longhands = new String[]{property};
+        }
+        return longhands;
+    }
+
+    //Where in the result of a merge the longhands were set last
+    private static class Setters {
+        //The index of the last block that sets the longhand
+        private final HashMap<String, Integer> last = new HashMap<>();
+        //The index of the last block that sets a property that is not known, and of the last block
+        private int lastUnknown = -1;
+        private int lastBlock = -1;
+
+        //Whether a block after target sets a longhand of block, so block cannot move up to target
+        boolean setAfter(Block block, int target) {
+            for (Declaration declaration : block.declarations) {
+                String[] longhands = longhandsOf(declaration.property.name);
+                if (longhands == null ? lastBlock > target : lastUnknown > target) {
+                    return true;
+                }
+                for (int i = 0; longhands != null && i < longhands.length; i++) {
+                    Integer index = last.get(longhands[i]);
+                    if (index != null && index > target) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void add(Block block, int index) {
+            for (Declaration declaration : block.declarations) {
+                String[] longhands = longhandsOf(declaration.property.name);
+                if (longhands == null) {
+                    lastUnknown = Math.max(lastUnknown, index);
+                } else {
+                    for (String longhand : longhands) {
+                        last.merge(longhand, index, Math::max);
+                    }
+                }
+            }
+            lastBlock = Math.max(lastBlock, index);
+        }
+    }
+
+    //A stylerule with only declarations of literals, while it is being optimized
+    private static class Block {
+        private final ArrayList<Selector> selectors;
+        private final HashSet<Selector> selectorSet;
+        private ArrayList<Declaration> declarations;
+        private final int sourceId;
+        //The rule this block is, as long as nothing changed
+        private Stylerule original;
+
+        private Block(Stylerule original, ArrayList<Declaration> declarations) {
+            this.selectors = new ArrayList<>(original.selectors);
+            this.selectorSet = new HashSet<>(selectors);
+            this.declarations = declarations;
+            this.sourceId = original.getSourceId();
+            this.original = original;
+        }
+
+        //A block of node, or null when node is not a stylerule with only declarations of literals
+        static Block of(Object node) {
+            if (!(node instanceof Stylerule)) {
+                return null;
+            }
+            Stylerule rule = (Stylerule) node;
+            ArrayList<Declaration> declarations = new ArrayList<>();
+            for (ASTNode child : rule.body) {
+                if (!(child instanceof Declaration) || !(((Declaration) child).expression instanceof Literal)) {
+                    return null;
+                }
+                declarations.add((Declaration) child);
+            }
+            return new Block(rule, declarations);
+        }
+
+        //Keeps the last declaration of every property, in the order they had
+        void removeOverridden() {
+            HashSet<String> seen = new HashSet<>();
+            ArrayList<Declaration> kept = new ArrayList<>();
+            for (int i = declarations.size() - 1; i >= 0; i--) {
+                if (seen.add(declarations.get(i).property.name)) {
+                    kept.add(declarations.get(i));
+                }
+            }
+            if (kept.size() < declarations.size()) {
+                Collections.reverse(kept);
+                declarations = kept;
+                original = null;
+            }
+        }
+
+        void addDeclarations(Block later) {
+            declarations.addAll(later.declarations);
+            original = null;
+        }
+
+        void addSelectors(Block later) {
+            for (Selector selector : later.selectors) {
+                if (selectorSet.add(selector)) {
+                    selectors.add(selector);
+                    original = null;
+                }
+            }
+        }
+
+        Stylerule toStylerule() {
+            if (original != null) {
+                return original;
+            }
+            Stylerule rule = new Stylerule();
+            rule.setSourceId(sourceId);
+            rule.selectors = selectors;
+            rule.body = new ArrayList<>(declarations);
+            return rule;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.Operation;
+
+import java.util.IdentityHashMap;
+
+/**
+ * The programs the last transform compiled, per top level item of the stylesheet, so an Evaluator
+ * that is given the cache only compiles the operations of items that changed. The programs of an
+ * item are used again when the item is the same instance with the same structural hash, like the
+ * results of a RuleCache. A program does not depend on the slots of its variables, so the globals
+ * around an item may change. Use one cache per document.
+ */
+public class ProgramCache {
+
+    private IdentityHashMap<ASTNode, Entry> entries = new IdentityHashMap<>();
+    private int compiledItems = 0;
+    private int reusedItems = 0;
+
+    /**
+     * The programs of the operations of one item, only used by the task that evaluates the item.
+     */
+    static class Entry {
+        private final long hash;
+        final IdentityHashMap<Operation, ExpressionProgram> programs = new IdentityHashMap<>();
+
+        Entry(long hash) {
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * @return the number of items whose programs the last transform did not find in this cache
+     */
+    public int getCompiledItems() {
+        return compiledItems;
+    }
+
+    /**
+     * @return the number of items whose programs the last transform took from this cache
+     */
+    public int getReusedItems() {
+        return reusedItems;
+    }
+
+    public void clear() {
+        entries = new IdentityHashMap<>();
+    }
+
+    //Starts a transform, get puts the entries of its items in the returned map and update keeps them
+    IdentityHashMap<ASTNode, Entry> begin() {
+        compiledItems = 0;
+        reusedItems = 0;
+        return new IdentityHashMap<>();
+    }
+
+    //The entry of item in the last transform, or a new empty one when item changed since
+    Entry get(ASTNode item, IdentityHashMap<ASTNode, Entry> current) {
+        long hash = item.structuralHash();
+        Entry entry = entries.get(item);
+        if (entry == null || entry.hash != hash) {
+            entry = new Entry(hash);
+            compiledItems++;
+        } else {
+            reusedItems++;
+        }
+        current.put(item, entry);
+        return entry;
+    }
+
+    //Replaces the entries by those of the last transform, which drops the items that are gone
+    void update(IdentityHashMap<ASTNode, Entry> current) {
+        entries = current;
+    }
+}
@@ -0,0 +1,247 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.types.ExpressionType;
+import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.checker.Resolver;
+import nl.han.ica.icss.generator.Generator;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the CSS of one checked stylesheet for many themes. A theme gives other values to
+ * global variables, as if their assignments at the top of the stylesheet said something else.
+ *
+ * The stylesheet is resolved and its operations are compiled once. For each theme only the
+ * globals that depend on a changed variable and the rules that read one of those are evaluated
+ * again, every other rule keeps the CSS it has without a theme.
+ */
+public class ThemeEvaluator {
+
+    private final Resolver resolver = new Resolver();
+    private final ArrayList<ASTNode> items;
+    private final int globalCount;
+    //Per item of the stylesheet the global slots it reads, for an assignment those of its expression
+    private final int[][] reads;
+    //Per global slot the type all its assignments have, and whether they have different types
+    private final ExpressionType[] globalTypes;
+    private final boolean[] mixedTypes;
+    //Only read once the constructor is done, so the evaluators of all themes share it
+    private final IdentityHashMap<Operation, ExpressionProgram> programs = new IdentityHashMap<>();
+    //Per stylerule its CSS without a theme
+    private final String[] baseCss;
+
+    /**
+     * @param ast a stylesheet the Checker found no errors in, it is not changed
+     */
+    public ThemeEvaluator(AST ast) {
+        resolver.resolve(ast);
+        items = new ArrayList<>(ast.root.body);
+        globalCount = resolver.getGlobalCount();
+        reads = new int[items.size()][];
+        for (int i = 0; i < items.size(); i++) {
+            BitSet slots = new BitSet();
+            collect(items.get(i), slots);
+            reads[i] = slots.stream().toArray();
+        }
+        globalTypes = new ExpressionType[globalCount];
+        mixedTypes = new boolean[globalCount];
+        typeGlobals(ast);
+        baseCss = new String[items.size()];
+        render(new Literal[globalCount], true);
+    }
+
+    /**
+     * @return the names of the global variables a theme can give a value
+     */
+    public Set<String> getGlobalNames() {
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (ASTNode item : items) {
+            if (item instanceof VariableAssignment) {
+                names.add(((VariableAssignment) item).name.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Generates the CSS of the stylesheet with the values of theme.
+     * @param theme values by global variable name, variables it leaves out keep their own value
+     * @throws IllegalArgumentException when theme names a variable that is not a global, gives it no
+     * value or a value of another type than the Checker found for it
+     */
+    public String generate(Map<String, Literal> theme) {
+        Literal[] values = new Literal[globalCount];
+        for (Map.Entry<String, Literal> binding : theme.entrySet()) {
+            int slot = resolver.getGlobalSlot(binding.getKey());
+            if (slot < 0) {
+                throw new IllegalArgumentException("Unknown global variable " + binding.getKey());
+            }
+            if (binding.getValue() == null) {
+                throw new IllegalArgumentException("No value for variable " + binding.getKey());
+            }
+            if (mixedTypes[slot]) {
+                throw new IllegalArgumentException("Variable " + binding.getKey() + " is assigned values of different types");
+            }
+            ExpressionType type = Checker.getLiteralType(binding.getValue());
+            if (globalTypes[slot] != null && type != globalTypes[slot]) {
+                throw new IllegalArgumentException("Variable " + binding.getKey() + " needs a " + describe(globalTypes[slot])
+                        + " value, not a " + (type == null ? "value without a type" : describe(type)));
+            }
+            values[slot] = binding.getValue();
+        }
+        return render(values, false);
+    }
+
+    /**
+     * Generates the CSS of every theme, the themes are evaluated in parallel on pool.
+     * @return the CSS in the order of themes
+     * @throws IllegalArgumentException when a theme is not valid, see generate(Map)
+     */
+    public List<String> generate(List<Map<String, Literal>> themes, ForkJoinPool pool) {
+        ArrayList<Callable<String>> tasks = new ArrayList<>();
+        for (Map<String, Literal> theme : themes) {
+            tasks.add(() -> generate(theme));
+        }
+        ArrayList<String> css = new ArrayList<>();
+        try {
+            for (Future<String> result : pool.invokeAll(tasks)) {
+                css.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating themes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return css;
+    }
+
+    //values has the theme value by slot, null where the stylesheet keeps its own value
+    private String render(Literal[] values, boolean base) {
+        Evaluator evaluator = new Evaluator(programs, resolver);
+        evaluator.startGlobals(globalCount);
+        Generator generator = new Generator();
+        StringBuilder css = new StringBuilder();
+        //The globals whose value may differ from the one they have without a theme
+        boolean[] changed = new boolean[globalCount];
+
+        for (int i = 0; i < items.size(); i++) {
+            ASTNode item = items.get(i);
+            if (item instanceof VariableAssignment) {
+                VariableAssignment assignment = (VariableAssignment) item;
+                int slot = resolver.getSlot(assignment.name);
+                if (values[slot] != null) {
+                    evaluator.setGlobal(slot, values[slot]);
+                    changed[slot] = true;
+                } else {
+                    if (base) {
+                        compile(assignment);
+                    }
+                    evaluator.assignGlobal(assignment);
+                    //The Evaluator does not store references, then the variable keeps its last value
+                    boolean stored = assignment.expression instanceof Operation
+                            || assignment.expression instanceof Literal;
+                    changed[slot] = readsChanged(i, changed) || (!stored && changed[slot]);
+                }
+            } else if (item instanceof Stylerule) {
+                if (base) {
+                    compile(item);
+                    baseCss[i] = generator.generate(evaluator.evaluateRule((Stylerule) item));
+                    css.append(baseCss[i]);
+                } else if (readsChanged(i, changed)) {
+                    css.append(generator.generate(evaluator.evaluateRule((Stylerule) item)));
+                } else {
+                    css.append(baseCss[i]);
+                }
+            }
+        }
+        return css.toString();
+    }
+
+    private boolean readsChanged(int item, boolean[] changed) {
+        for (int slot : reads[item]) {
+            if (changed[slot]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //The types the Checker gives the globals, a theme replaces every assignment of a global so it can
+    //only give a value to one whose assignments all have the same type. The check runs on a new AST
+    //around the same stylesheet, so the errors of ast stay as they are
+    private void typeGlobals(AST ast) {
+        Checker checker = new Checker();
+        checker.check(new AST(ast.root));
+        boolean[] typed = new boolean[globalCount];
+        for (ASTNode item : items) {
+            if (item instanceof VariableAssignment) {
+                VariableAssignment assignment = (VariableAssignment) item;
+                int slot = resolver.getSlot(assignment.name);
+                ExpressionType type = checker.getAssignedType(assignment);
+                if (!typed[slot]) {
+                    globalTypes[slot] = type;
+                    typed[slot] = true;
+                } else if (globalTypes[slot] != type) {
+                    mixedTypes[slot] = true;
+                }
+            }
+        }
+    }
+
+    private static String describe(ExpressionType type) {
+        return type == ExpressionType.BOOL ? "boolean" : type.name().toLowerCase();
+    }
+
+    //The global slots node reads, the names of assignments are written rather than read. A local that
+    //shadows a global starts with the value of the global, so reading it may read the global
+    private void collect(ASTNode node, BitSet slots) {
+        if (node instanceof VariableReference) {
+            int slot = resolver.getSlot((VariableReference) node);
+            if (slot >= globalCount) {
+                slot = resolver.getGlobalSlot(((VariableReference) node).name);
+            }
+            if (slot >= 0) {
+                slots.set(slot);
+            }
+        } else if (node instanceof VariableAssignment) {
+            collect(((VariableAssignment) node).expression, slots);
+            return;
+        }
+        for (int i = 0; i < node.childCount(); i++) {
+            ASTNode child = node.childAt(i);
+            if (child != null) {
+                collect(child, slots);
+            }
+        }
+    }
+
+    //Compiles the operations the Evaluator runs, those that are a whole expression
+    private void compile(ASTNode node) {
+        Expression expression = null;
+        if (node instanceof Declaration) {
+            expression = ((Declaration) node).expression;
+        } else if (node instanceof VariableAssignment) {
+            expression = ((VariableAssignment) node).expression;
+        }
+        if (expression instanceof Operation && !programs.containsKey(expression)) {
+            programs.put((Operation) expression, ExpressionProgram.compile((Operation) expression));
+        }
+        if (!(node instanceof VariableAssignment)) {
+            for (int i = 0; i < node.childCount(); i++) {
+                ASTNode child = node.childAt(i);
+                if (child != null) {
+                    compile(child);
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,30 @@
 package nl.han.ica.icss.transforms;
 
 import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.CompactAST;
 
 public interface Transform {
-    void apply(AST ast);
+
+    /**
+     * Returns the transformed tree. Unchanged subtrees are shared with ast, which is not changed,
+     * so one checked tree can be the start of several transforms.
+     */
+    AST transform(AST ast);
+
+    /**
+     * Replaces the tree of ast by its transformed version.
+     */
+    default void apply(AST ast) {
+        ast.setRoot(transform(ast).root);
+    }
+
+    /**
+     * Converts ast to its object form with toAST, transforms that and converts the result back with
+     * CompactAST.fromAST. Both conversions visit and allocate the whole tree, so this is a convenience,
+     * not a transform on the arrays.
+     * @return the transformed tree, ast itself is not changed
+     */
+    default CompactAST applyConverted(CompactAST ast) {
+        return CompactAST.fromAST(transform(ast.toAST()));
+    }
 }
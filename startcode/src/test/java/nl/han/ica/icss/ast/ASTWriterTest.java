@@ -0,0 +1,145 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.checker.SemanticError;
+import nl.han.ica.icss.parser.Fixtures;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ASTWriterTest {
+
+	//Uses a color as width and an undefined condition, so three nodes get errors
+	private static final String WITH_ERRORS =
+			"linkColor := #ff0000;\n" +
+			"p {\n\tcolor: linkColor;\n\twidth: #ffffff;\n}\n" +
+			"a {\n\tcolor: linkColor;\n\tif [unknownFlag] { height: 10px; }\n}\n";
+
+	AST checked(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(icss);
+		pipeline.check();
+		return pipeline.getAST();
+	}
+
+	byte[] write(List<AST> asts, boolean checked) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ASTWriter writer = new ASTWriter(bytes)) {
+			for (AST ast : asts) {
+				writer.write(ast, checked);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	List<AST> read(byte[] bytes) throws IOException {
+		List<AST> asts = new ArrayList<>();
+		try (ASTReader reader = new ASTReader(new ByteArrayInputStream(bytes))) {
+			for (AST ast = reader.read(); ast != null; ast = reader.read()) {
+				asts.add(ast);
+			}
+		}
+		return asts;
+	}
+
+	List<String> describe(List<SemanticError> errors) {
+		List<String> descriptions = new ArrayList<>();
+		for (SemanticError error : errors) {
+			descriptions.add(error.code + " " + error.description + " at " + error.node);
+		}
+		return descriptions;
+	}
+
+	@Test
+	void testUncheckedASTsRoundTrip() throws IOException {
+		List<AST> fixtures = List.of(Fixtures.uncheckedLevel0(), Fixtures.uncheckedLevel1(),
+				Fixtures.uncheckedLevel2(), Fixtures.uncheckedLevel3());
+		try (ASTReader reader = new ASTReader(new ByteArrayInputStream(write(fixtures, false)))) {
+			for (AST fixture : fixtures) {
+				AST ast = reader.read();
+				assertEquals(fixture, ast);
+				assertFalse(reader.wasChecked());
+				assertNull(ast.getErrorTable());
+			}
+			assertNull(reader.read());
+		}
+	}
+
+	@Test
+	void testCheckedASTKeepsItsErrors() throws IOException {
+		AST ast = checked(WITH_ERRORS);
+		assertEquals(3, ast.getErrors().size());
+		try (ASTReader reader = new ASTReader(new ByteArrayInputStream(write(List.of(ast), true)))) {
+			AST copy = reader.read();
+			assertTrue(reader.wasChecked());
+			assertEquals(ast, copy);
+			assertEquals(describe(ast.getErrors()), describe(copy.getErrors()));
+		}
+	}
+
+	@Test
+	void testStringsAreWrittenOncePerStream() throws IOException {
+		AST ast = checked(WITH_ERRORS);
+		byte[] once = write(List.of(ast), true);
+		byte[] twice = write(List.of(ast, ast), true);
+		//The second record refers back to the names and descriptions of the first
+		assertTrue(twice.length - once.length < once.length / 2);
+		List<AST> copies = read(twice);
+		assertEquals(2, copies.size());
+		for (AST copy : copies) {
+			assertEquals(ast, copy);
+			assertEquals(describe(ast.getErrors()), describe(copy.getErrors()));
+		}
+		//Names are read once, so both records share their instances
+		Stylerule first = (Stylerule) copies.get(0).root.body.get(1);
+		Stylerule second = (Stylerule) copies.get(1).root.body.get(1);
+		assertSame(((Declaration) first.body.get(0)).property.name, ((Declaration) second.body.get(0)).property.name);
+	}
+
+	@Test
+	void testWrongHeaderIsRejected() {
+		assertThrows(IOException.class, () -> new ASTReader(new ByteArrayInputStream(new byte[0])));
+		assertThrows(IOException.class, () -> new ASTReader(new ByteArrayInputStream("p { }\n".getBytes())));
+		byte[] future = ByteBuffer.allocate(6).putInt(ASTWriter.MAGIC).putShort((short) (ASTWriter.VERSION + 1)).array();
+		assertThrows(IOException.class, () -> new ASTReader(new ByteArrayInputStream(future)));
+		byte[] zero = ByteBuffer.allocate(6).putInt(ASTWriter.MAGIC).putShort((short) 0).array();
+		assertThrows(IOException.class, () -> new ASTReader(new ByteArrayInputStream(zero)));
+	}
+
+	@Test
+	void testTruncatedStreamFailsWithIOException() throws IOException {
+		byte[] bytes = write(List.of(checked(WITH_ERRORS)), true);
+		for (int length = 0; length < bytes.length; length++) {
+			if (length == 6) {
+				//Only the header is a stream without records
+				continue;
+			}
+			byte[] truncated = Arrays.copyOf(bytes, length);
+			assertThrows(IOException.class, () -> read(truncated), "cut at " + length);
+		}
+	}
+
+	@Test
+	void testCorruptStreamFailsWithIOException() throws IOException {
+		byte[] bytes = write(List.of(checked(WITH_ERRORS), Fixtures.uncheckedLevel3()), true);
+		for (int position = 6; position < bytes.length; position++) {
+			for (int value : new int[]{0x00, 0x01, 0x07, 0x1E, 0x3F, 0x7F, 0x80, 0xFF}) {
+				byte[] corrupt = bytes.clone();
+				corrupt[position] = (byte) value;
+				try {
+					read(corrupt);
+				} catch (IOException e) {
+					//Expected for most changes, others still give a valid stream
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package nl.han.ica.icss.ast;
+
+import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.parser.Fixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactASTTest {
+
+	private static final List<AST> FIXTURES = List.of(Fixtures.uncheckedLevel0(), Fixtures.uncheckedLevel1(),
+			Fixtures.uncheckedLevel2(), Fixtures.uncheckedLevel3());
+
+	int countNodes(ASTNode node) {
+		int count = 1;
+		for (int i = 0; i < node.childCount(); i++) {
+			count += countNodes(node.childAt(i));
+		}
+		return count;
+	}
+
+	@Test
+	void testRoundTripGivesTheSameAST() {
+		for (AST fixture : FIXTURES) {
+			CompactAST compact = CompactAST.fromAST(fixture);
+			assertEquals(countNodes(fixture.root), compact.size());
+			assertEquals(fixture, compact.toAST());
+			assertEquals(fixture, CompactAST.fromAST(compact.toAST()).toAST());
+		}
+	}
+
+	@Test
+	void testCheckConvertedFindsTheSameErrors() {
+		for (AST fixture : FIXTURES) {
+			List<?> errors = new Checker().checkConverted(CompactAST.fromAST(fixture));
+			new Checker().check(fixture);
+			assertEquals(fixture.getErrors().toString(), errors.toString());
+		}
+	}
+}
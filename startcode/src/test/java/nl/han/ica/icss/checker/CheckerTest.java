@@ -0,0 +1,367 @@
+package nl.han.ica.icss.checker;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.BoolLiteral;
+import nl.han.ica.icss.ast.literals.ColorLiteral;
+import nl.han.ica.icss.ast.literals.PixelLiteral;
+import nl.han.ica.icss.ast.literals.ScalarLiteral;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+import nl.han.ica.icss.parser.Fixtures;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckerTest {
+
+	private static final int TERMS = 10000;
+
+	/*
+	 p {
+	 	width: 1px + 1px + ... + 1px;
+	 }
+	 with the operations nested to the left, as the parser builds them.
+	 */
+	AST longSum(Expression last) {
+		Expression sum = new PixelLiteral(1);
+		for (int i = 1; i < TERMS; i++) {
+			sum = (Expression) new AddOperation()
+					.addChild(sum)
+					.addChild(i == TERMS - 1 ? last : new PixelLiteral(1));
+		}
+		Stylesheet stylesheet = new Stylesheet();
+		stylesheet.addChild((new Stylerule())
+				.addChild(new TagSelector("p"))
+				.addChild((new Declaration("width"))
+						.addChild(sum)));
+		return new AST(stylesheet);
+	}
+
+	ArrayList<SemanticError> check(AST ast) {
+		//Typing recurses once per level of the expression, more than the default stack allows
+		ArrayList<ArrayList<SemanticError>> result = new ArrayList<>();
+		Thread thread = new Thread(null, () -> {
+			new Checker().check(ast);
+			result.add(ast.getErrors());
+		}, "checker", 64L * 1024 * 1024);
+		//A checker that is too slow is left behind when the test times out
+		thread.setDaemon(true);
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			thread.start();
+			thread.join();
+		});
+		assertEquals(1, result.size(), "The checker failed");
+		return result.get(0);
+	}
+
+	@Test
+	void testLongExpressionIsTypedInLinearTime() {
+		ArrayList<SemanticError> errors = check(longSum(new PixelLiteral(1)));
+		assertTrue(errors.isEmpty());
+	}
+
+	@Test
+	void testLongExpressionReportsEachErrorOnce() {
+		AST ast = longSum(new ColorLiteral("#ffffff"));
+		ArrayList<SemanticError> errors = check(ast);
+		assertEquals(1, errors.size());
+		assertEquals(ErrorCode.OPERAND_TYPES_DIFFER, errors.get(0).code);
+		assertSame(((Declaration) ((Stylerule) ast.root.body.get(0)).body.get(0)).expression, errors.get(0).node);
+	}
+
+	@Test
+	void testDeclarationsAreCheckedAgainstTheRegistry() throws IOException {
+		PropertyRegistry properties = PropertyRegistry.load(new StringReader(
+				"# test properties\nmargin: percentage pixel\nz-index: scalar\n"));
+		/*
+		 p {
+		 	margin: #ffffff;
+		 	z-index: 3;
+		 	display: 10px;
+		 }
+		 */
+		Stylesheet stylesheet = new Stylesheet();
+		stylesheet.addChild((new Stylerule())
+				.addChild(new TagSelector("p"))
+				.addChild((new Declaration("margin"))
+						.addChild(new ColorLiteral("#ffffff")))
+				.addChild((new Declaration("z-index"))
+						.addChild(new ScalarLiteral(3)))
+				.addChild((new Declaration("display"))
+						.addChild(new PixelLiteral(10))));
+		AST ast = new AST(stylesheet);
+		new Checker(properties).check(ast);
+
+		ArrayList<SemanticError> errors = ast.getErrors();
+		assertEquals(1, errors.size());
+		assertEquals(ErrorCode.SIZE_EXPECTED, errors.get(0).code);
+		assertEquals("At property margin - Value must be either a percentage or pixel", errors.get(0).description);
+	}
+
+	@Test
+	void testDefaultRegistryChecksMoreThanTheFourOriginalProperties() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString("p {\n\tmargin: 0;\n\tpadding: 0px;\n}\n");
+		assertFalse(pipeline.check());
+		assertEquals(1, pipeline.getAST().getErrors().size());
+		assertEquals("At property margin - Value must be either a percentage or pixel", pipeline.getAST().getErrors().get(0).description);
+
+		//Parsed property names are the instances the registry compares them with
+		PropertyRegistry properties = PropertyRegistry.getDefault();
+		Declaration margin = (Declaration) ((Stylerule) pipeline.getAST().root.body.get(0)).body.get(0);
+		assertSame(properties.getName(properties.indexOf("margin")), margin.property.name);
+	}
+
+	@Test
+	void testRegistryRejectsUnknownTypes() {
+		assertThrows(IOException.class, () -> PropertyRegistry.load(new StringReader("width: pixel meter\n")));
+	}
+
+	@Test
+	void testCachedRulesAreOnlyCheckedAgainWhenTheirGlobalsChange() {
+		/*
+		 vA := 10px;
+		 p { width: vA; }
+		 a { color: #ff0000; }
+		 */
+		VariableAssignment assignment = (VariableAssignment) new VariableAssignment()
+				.addChild(new VariableReference("vA"))
+				.addChild(new PixelLiteral(10));
+		Stylesheet stylesheet = new Stylesheet();
+		stylesheet.addChild(assignment);
+		stylesheet.addChild((new Stylerule())
+				.addChild(new TagSelector("p"))
+				.addChild((new Declaration("width"))
+						.addChild(new VariableReference("vA"))));
+		stylesheet.addChild((new Stylerule())
+				.addChild(new TagSelector("a"))
+				.addChild((new Declaration("color"))
+						.addChild(new ColorLiteral("#ff0000"))));
+		AST ast = new AST(stylesheet);
+		RuleCache cache = new RuleCache();
+		Checker checker = new Checker();
+		checker.setCache(cache);
+
+		checker.check(ast);
+		assertEquals(2, cache.getCheckedRules());
+		checker.check(ast);
+		assertEquals(0, cache.getCheckedRules());
+		assertEquals(2, cache.getReusedRules());
+
+		assignment.expression = new ColorLiteral("#00ff00");
+		assignment.invalidateStructuralHash();
+		checker.check(ast);
+		assertEquals(1, cache.getCheckedRules());
+		assertEquals(1, ast.getErrors().size());
+		assertEquals(ErrorCode.SIZE_EXPECTED, ast.getErrors().get(0).code);
+	}
+
+	/*
+	 p {
+	 	if [TRUE] { width: 5px; }
+	 }
+	 */
+	Stylerule nestedRule(Declaration nested) {
+		return (Stylerule) (new Stylerule())
+				.addChild(new TagSelector("p"))
+				.addChild((new IfClause())
+						.addChild(new BoolLiteral(true))
+						.addChild(nested));
+	}
+
+	@Test
+	void testNestedChangeIsSeenByEqualsAndTheCache() {
+		Declaration nested = (Declaration) (new Declaration("width")).addChild(new PixelLiteral(5));
+		Stylerule rule = nestedRule(nested);
+		Stylerule copy = nestedRule((Declaration) (new Declaration("width")).addChild(new PixelLiteral(5)));
+		Stylesheet stylesheet = new Stylesheet();
+		stylesheet.addChild(rule);
+		AST ast = new AST(stylesheet);
+		RuleCache cache = new RuleCache();
+		Checker checker = new Checker();
+		checker.setCache(cache);
+
+		checker.check(ast);
+		assertEquals(rule, copy);
+		assertTrue(ast.getErrors().isEmpty());
+
+		//Changed in place, two levels below the rule, only the changed node is told
+		nested.expression = new ColorLiteral("#00ff00");
+		nested.invalidateStructuralHash();
+		assertNotEquals(copy, rule);
+		assertNotEquals(copy.structuralHash(), rule.structuralHash());
+		checker.check(ast);
+		assertEquals(1, cache.getCheckedRules());
+		assertEquals(0, cache.getReusedRules());
+		assertEquals(1, ast.getErrors().size());
+		assertEquals(ErrorCode.SIZE_EXPECTED, ast.getErrors().get(0).code);
+	}
+
+	@Test
+	void testHashesAreKeptUntilAHashedNodeChanges() {
+		int[] hashed = new int[1];
+		PixelLiteral counted = new PixelLiteral(5) {
+			@Override
+			protected long localHash() {
+				hashed[0]++;
+				return super.localHash();
+			}
+		};
+		Declaration nested = (Declaration) (new Declaration("width")).addChild(counted);
+		Stylerule rule = nestedRule(nested);
+		long hash = rule.structuralHash();
+		assertEquals(hash, rule.structuralHash());
+		assertEquals(1, hashed[0]);
+
+		//A new node that was never hashed changes no hash
+		new Declaration("height").addChild(new PixelLiteral(1));
+		rule.structuralHash();
+		assertEquals(1, hashed[0]);
+
+		nested.expression = new PixelLiteral(6);
+		nested.invalidateStructuralHash();
+		assertNotEquals(hash, rule.structuralHash());
+		nested.expression = counted;
+		nested.invalidateStructuralHash();
+		assertEquals(hash, rule.structuralHash());
+		assertEquals(2, hashed[0]);
+	}
+
+	@Test
+	void testErrorsAreListedInSourceOrder() {
+		SourcePositions positions = new SourcePositions();
+		PixelLiteral third = new PixelLiteral(3);
+		PixelLiteral first = new PixelLiteral(1);
+		PixelLiteral unknown = new PixelLiteral(0);
+		PixelLiteral second = new PixelLiteral(2);
+		positions.record(third, 30, 3, 0);
+		positions.record(first, 10, 1, 0);
+		positions.record(second, 20, 2, 0);
+		ErrorTable errors = new ErrorTable(positions);
+		errors.report(third, ErrorCode.SIZE_EXPECTED, "third");
+		errors.report(unknown, ErrorCode.SIZE_EXPECTED, "unknown");
+		errors.report(first, ErrorCode.SIZE_EXPECTED, "first");
+		errors.report(second, ErrorCode.SIZE_EXPECTED, "second");
+		//Reporting a node again replaces its error
+		errors.report(third, ErrorCode.COLOR_EXPECTED, "third again");
+
+		ArrayList<String> descriptions = new ArrayList<>();
+		for (SemanticError error : errors.getErrors()) {
+			descriptions.add(error.description);
+		}
+		assertEquals(Arrays.asList("first", "second", "third again", "unknown"), descriptions);
+	}
+
+	@Test
+	void testUnusedVariablesAreFound() {
+		/*
+		 vA := 10px;
+		 vB := vA * 2;
+		 vC := 5px;
+		 p { vL := 1px; width: vB; }
+		 */
+		Stylesheet stylesheet = new Stylesheet();
+		stylesheet.addChild(new VariableAssignment()
+				.addChild(new VariableReference("vA"))
+				.addChild(new PixelLiteral(10)));
+		stylesheet.addChild(new VariableAssignment()
+				.addChild(new VariableReference("vB"))
+				.addChild(new MultiplyOperation()
+						.addChild(new VariableReference("vA"))
+						.addChild(new ScalarLiteral(2))));
+		stylesheet.addChild(new VariableAssignment()
+				.addChild(new VariableReference("vC"))
+				.addChild(new PixelLiteral(5)));
+		stylesheet.addChild((new Stylerule())
+				.addChild(new TagSelector("p"))
+				.addChild(new VariableAssignment()
+						.addChild(new VariableReference("vL"))
+						.addChild(new PixelLiteral(1)))
+				.addChild((new Declaration("width"))
+						.addChild(new VariableReference("vB"))));
+		Resolver resolver = new Resolver();
+		resolver.resolve(new AST(stylesheet));
+
+		ArrayList<String> unused = new ArrayList<>();
+		for (VariableAssignment assignment : resolver.getUnusedVariables()) {
+			unused.add(assignment.name.name);
+		}
+		assertEquals(Arrays.asList("vC", "vL"), unused);
+	}
+
+	List<String> unusedWarnings(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.setReportingUnusedVariables(true);
+		pipeline.parseString(icss);
+		assertTrue(pipeline.check(), "The stylesheet has errors");
+		return pipeline.getWarnings();
+	}
+
+	@Test
+	void testLocalsThatShadowAGlobalAreCountedForTheRule() {
+		//The assignment in p is never read. The if clause always runs and its assignment stays in effect, as
+		//in the Evaluator, so a gets width: 30px and nothing reads the global
+		assertEquals(Arrays.asList(
+						"WARNING: Variable baseWidth is never used (line 1)",
+						"WARNING: Variable baseWidth is never used (line 3)"),
+				unusedWarnings("baseWidth := 10px;\n" +
+						"p {\n" +
+						"\tbaseWidth := 20px;\n" +
+						"\theight: 5px;\n" +
+						"}\n" +
+						"a {\n" +
+						"\tif[TRUE] {\n" +
+						"\t\tbaseWidth := 30px;\n" +
+						"\t}\n" +
+						"\twidth: baseWidth;\n" +
+						"}\n" +
+						"h1 {\n" +
+						"\tbaseWidth := 40px;\n" +
+						"\twidth: baseWidth;\n" +
+						"}\n"));
+		//Only read through the local that shadows it, the global is not used
+		assertEquals(Arrays.asList("WARNING: Variable baseWidth is never used (line 1)"),
+				unusedWarnings("baseWidth := 10px;\nh1 {\n\tbaseWidth := 40px;\n\twidth: baseWidth;\n}\n"));
+		//Without the branch the read is of the global, so both are used
+		assertEquals(Collections.emptyList(), unusedWarnings("baseWidth := 10px;\nisWide := TRUE;\n" +
+				"a {\n\tif[isWide] {\n\t\tbaseWidth := 30px;\n\t}\n\twidth: baseWidth;\n}\n"));
+		//Both branches assign it, the global is never read
+		assertEquals(Arrays.asList("WARNING: Variable baseWidth is never used (line 1)"),
+				unusedWarnings("baseWidth := 10px;\nisWide := TRUE;\n" +
+						"a {\n\tif[isWide] {\n\t\tbaseWidth := 30px;\n\t} else {\n\t\tbaseWidth := 50px;\n\t}\n\twidth: baseWidth;\n}\n"));
+	}
+
+	@Test
+	void testParallelCheckGivesTheErrorsOfASequentialCheck() {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(Fixtures.manyRules(300, true));
+		AST ast = pipeline.getAST();
+
+		new Checker().check(ast);
+		ArrayList<SemanticError> sequential = ast.getErrors();
+		assertFalse(sequential.isEmpty());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			new Checker().check(ast, pool);
+		} finally {
+			pool.shutdown();
+		}
+		ArrayList<SemanticError> parallel = ast.getErrors();
+		assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			assertSame(sequential.get(i).node, parallel.get(i).node);
+			assertEquals(sequential.get(i).toString(), parallel.get(i).toString());
+		}
+	}
+}
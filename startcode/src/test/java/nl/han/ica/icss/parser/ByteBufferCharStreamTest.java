@@ -0,0 +1,80 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBufferCharStreamTest {
+
+	@Test
+	void testStreamStartsAtThePositionOfTheBuffer() {
+		ByteBuffer buffer = ByteBuffer.wrap("skip p { }trailer".getBytes(StandardCharsets.US_ASCII));
+		buffer.position(5);
+		buffer.limit(10);
+		CharStream stream = new ByteBufferCharStream(buffer, "test");
+
+		assertEquals(5, stream.size());
+		assertEquals('p', stream.LA(1));
+		assertEquals("p { }", stream.getText(Interval.of(0, 4)));
+		stream.seek(5);
+		assertEquals(IntStream.EOF, stream.LA(1));
+		assertEquals(5, buffer.position(), "The buffer is not moved");
+	}
+
+	@Test
+	void testChannelIsReadToTheEnd() throws IOException {
+		//Larger than the first buffer, so the buffer has to grow
+		StringBuilder input = new StringBuilder();
+		while (input.length() < 200 * 1024) {
+			input.append("p { width: 10px; }\n");
+		}
+		CharStream stream = ByteBufferCharStream.fromChannel(
+				Channels.newChannel(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.US_ASCII))), "test");
+		assertEquals(input.length(), stream.size());
+		assertEquals(input.toString(), stream.getText(Interval.of(0, stream.size() - 1)));
+	}
+
+	@Test
+	void testNonAsciiInputIsDecodedAsUtf8() throws IOException {
+		String input = "/* é */ p { }";
+		CharStream stream = ByteBufferCharStream.fromChannel(
+				Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))), "test");
+		assertEquals(input, stream.getText(Interval.of(0, stream.size() - 1)));
+	}
+
+	@Test
+	void testFileIsMappedFromTheStart() throws IOException {
+		Path file = Files.createTempFile("icss", ".icss");
+		try {
+			Files.write(file, "a { color: #ffffff; }".getBytes(StandardCharsets.US_ASCII));
+			CharStream stream = ByteBufferCharStream.fromPath(file);
+			assertEquals("a { color: #ffffff; }", stream.getText(Interval.of(0, stream.size() - 1)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void testNonBlockingChannelIsRejected() throws IOException {
+		Pipe pipe = Pipe.open();
+		try {
+			pipe.source().configureBlocking(false);
+			assertThrows(IllegalArgumentException.class, () -> ByteBufferCharStream.fromChannel(pipe.source(), "test"));
+		} finally {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+	}
+}
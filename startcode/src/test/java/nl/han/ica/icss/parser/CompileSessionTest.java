@@ -0,0 +1,136 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.AST;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompileSessionTest {
+
+	AST parse(CharStream input, boolean buildParseTree) {
+		CompileSession session = new CompileSession();
+		session.setBuildParseTree(buildParseTree);
+		return session.parse(input, new BaseErrorListener());
+	}
+
+	//Parses input with every combination of lexer and build mode, and records the AST and syntax errors of each
+	List<String> parseAllWays(String input, boolean compactTokenStream) {
+		List<String> results = new ArrayList<>();
+		for (boolean handWrittenLexer : new boolean[]{false, true}) {
+			for (boolean buildParseTree : new boolean[]{true, false}) {
+				List<String> errors = new ArrayList<>();
+				CompileSession session = new CompileSession();
+				session.setHandWrittenLexer(handWrittenLexer);
+				session.setBuildParseTree(buildParseTree);
+				session.setCompactTokenStream(compactTokenStream);
+				AST ast = session.parse(CharStreams.fromString(input), new BaseErrorListener() {
+					@Override
+					public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+											int charPositionInLine, String msg, RecognitionException e) {
+						errors.add(line + ":" + charPositionInLine + " " + msg);
+					}
+				});
+				results.add(ast + " " + errors);
+			}
+		}
+		return results;
+	}
+
+	CharStream resource(String name) throws IOException {
+		try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(name)) {
+			return CharStreams.fromStream(inputStream);
+		}
+	}
+
+	void assertSameInBothModes(String icss) {
+		assertEquals(parse(CharStreams.fromString(icss), true), parse(CharStreams.fromString(icss), false), icss);
+	}
+
+	@Test
+	void testLevelFilesGiveTheSameASTWithoutParseTree() throws IOException {
+		for (int level = 0; level <= 3; level++) {
+			String name = "level" + level + ".icss";
+			assertEquals(parse(resource(name), true), parse(resource(name), false), name);
+		}
+	}
+
+	@Test
+	void testLongMixedChainsGiveTheSameASTWithoutParseTree() {
+		String[] operators = {" + ", " - ", " * "};
+		String[] operands = {"1px", "2", "30%", "maxWidth", "4px", "scaleFactor"};
+		Random random = new Random(4);
+		for (int chain = 0; chain < 50; chain++) {
+			StringBuilder expression = new StringBuilder(operands[random.nextInt(operands.length)]);
+			int length = 1 + random.nextInt(300);
+			for (int i = 0; i < length; i++) {
+				expression.append(operators[random.nextInt(operators.length)]);
+				expression.append(operands[random.nextInt(operands.length)]);
+			}
+			assertSameInBothModes("maxWidth := 10px;\nscaleFactor := 3;\np {\n\twidth: " + expression + ";\n}\n");
+		}
+	}
+
+	@Test
+	void testSyntaxErrorInsideAnExpressionTakesNoOuterOperands() {
+		//The '*' misses its right operand, its term must not take 2px and 3px of the expression
+		assertSameInBothModes("p { width: 2px + 3px ( - * ; height: 1px; }");
+		assertSameInBothModes("p { width: 1px + 2px $ * 3; height: 1px; }");
+	}
+
+	@Test
+	void testCompactTokenStreamParsesTheSame() throws IOException {
+		List<String> inputs = new ArrayList<>();
+		for (int level = 0; level <= 3; level++) {
+			inputs.add(resource("level" + level + ".icss").toString());
+		}
+		inputs.add("p { width: 2px + 3px ( - * ; height: 1px; }");
+		inputs.add("p @ { # .\n#G $ width: 1px; } #");
+		inputs.add("a { color: #ffffff; ");
+		for (String input : inputs) {
+			assertEquals(parseAllWays(input, false), parseAllWays(input, true), input);
+		}
+	}
+
+	@Test
+	void testCompactTokenStreamGivesTheSameTokenForAnIndex() throws IOException {
+		String input = resource("level3.icss").toString();
+		CompactTokenStream kept = new CompactTokenStream(new ICSSScanner(CharStreams.fromString(input)));
+		Token first = kept.LT(1);
+		while (kept.LA(1) != Token.EOF) {
+			kept.consume();
+		}
+		assertTrue(kept.size() > 16);
+		assertSame(first, kept.get(0));
+
+		CompactTokenStream windowed = new CompactTokenStream(null);
+		windowed.setKeepTokens(false);
+		windowed.setTokenSource(new ICSSScanner(CharStreams.fromString(input)));
+		first = windowed.LT(1);
+		assertSame(first, windowed.LT(1));
+		while (windowed.LA(1) != Token.EOF) {
+			windowed.consume();
+			windowed.LT(1);
+		}
+		Token again = windowed.get(0);
+		assertEquals(first.getTokenIndex(), again.getTokenIndex());
+		assertEquals(first.getType(), again.getType());
+		assertEquals(first.getText(), again.getText());
+		assertEquals(first.getLine(), again.getLine());
+
+		windowed.releaseBuffers();
+		assertEquals(0, windowed.size());
+		assertNull(windowed.getTokenSource());
+	}
+}
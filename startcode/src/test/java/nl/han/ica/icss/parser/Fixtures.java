@@ -326,4 +326,43 @@ public class Fixtures {
 
 		return new AST(stylesheet);
 	}
+
+	/**
+	 * ICSS source with more rules than a parallel check or transform handles in one task. The globals
+	 * are reassigned between the rules, some are computed from others and a third of the rules assign
+	 * a local that shadows a global.
+	 * @param withErrors whether some rules have a type error or read a variable that is not defined
+	 */
+	public static String manyRules(int rules, boolean withErrors) {
+		StringBuilder icss = new StringBuilder();
+		icss.append("baseWidth := 10px;\naccentColor := #112233;\nisWide := TRUE;\nsizeRatio := 3;\n");
+		icss.append("doubledWidth := baseWidth * sizeRatio;\n");
+		for (int i = 0; i < rules; i++) {
+			if (i % 10 == 5) {
+				icss.append("baseWidth := ").append(i).append("px;\n");
+			}
+			if (i % 25 == 20) {
+				icss.append("accentColor := #").append(String.format("%06x", i * 4099)).append(";\n");
+			}
+			if (i % 7 == 3) {
+				icss.append("isWide := ").append(i % 2 == 0 ? "TRUE" : "FALSE").append(";\n");
+			}
+			icss.append(".rule").append(i).append(" {\n");
+			if (i % 3 == 0) {
+				icss.append("\tbaseWidth := baseWidth + ").append(i).append("px;\n");
+			}
+			icss.append("\twidth: baseWidth * 2 - 1px;\n");
+			icss.append("\tmax-width: doubledWidth;\n");
+			icss.append("\tif[isWide] {\n\t\theight: baseWidth - 1px;\n\t} else {\n\t\theight: 10%;\n\t}\n");
+			icss.append("\tcolor: accentColor;\n");
+			if (withErrors && i % 11 == 0) {
+				icss.append("\tmargin: accentColor;\n");
+			}
+			if (withErrors && i % 13 == 0) {
+				icss.append("\tpadding: missingVar").append(i).append(";\n");
+			}
+			icss.append("}\n");
+		}
+		return icss.toString();
+	}
 }
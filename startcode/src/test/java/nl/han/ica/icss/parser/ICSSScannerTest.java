@@ -0,0 +1,116 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ICSSScannerTest {
+
+	private static final String EDGE_CASES =
+			"#ffffff #fffffff #abc #ABCDEF #ffffff-x #12345g .a-b .menu2\n" +
+			"aB Ab_c Ab-c a_b if iff if-x ifX else elses TRUE TRUEx FALSE FALSE_ Z9\n" +
+			"10px 10p 10% 10 0007px 10pxx 2147483647 :=: : ; { } [ ] + - *\r\n\ttail";
+
+	private static final String INVALID_INPUT = "p @ { # .\n#G $ width: 1px; } #";
+
+	String readResource(String resource) throws IOException {
+		InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resource);
+		return CharStreams.fromStream(inputStream).toString();
+	}
+
+	List<String> lexerTokens(String input, List<String> errors) {
+		ICSSLexer lexer = new ICSSLexer(CharStreams.fromString(input));
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(collectErrors(errors));
+		return describe(lexer);
+	}
+
+	List<String> scannerTokens(String input, List<String> errors) {
+		ICSSScanner scanner = new ICSSScanner(CharStreams.fromString(input));
+		scanner.addErrorListener(collectErrors(errors));
+		return describe(scanner);
+	}
+
+	private List<String> describe(TokenSource source) {
+		List<String> tokens = new ArrayList<>();
+		Token token;
+		do {
+			token = source.nextToken();
+			tokens.add(token.getType() + " '" + token.getText() + "' " + token.getStartIndex() + ":" + token.getStopIndex()
+					+ " @" + token.getLine() + ":" + token.getCharPositionInLine());
+		} while (token.getType() != Token.EOF);
+		return tokens;
+	}
+
+	private BaseErrorListener collectErrors(List<String> errors) {
+		return new BaseErrorListener() {
+			public void syntaxError(Recognizer<?,?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+				errors.add(line + ":" + charPositionInLine + " " + msg);
+			}
+		};
+	}
+
+	void assertSameTokens(String input) {
+		List<String> lexerErrors = new ArrayList<>();
+		List<String> scannerErrors = new ArrayList<>();
+		assertEquals(lexerTokens(input, lexerErrors), scannerTokens(input, scannerErrors));
+		assertEquals(lexerErrors, scannerErrors);
+	}
+
+	@Test
+	void testSameTokensLevel0() throws IOException {
+		assertSameTokens(readResource("level0.icss"));
+	}
+	@Test
+	void testSameTokensLevel1() throws IOException {
+		assertSameTokens(readResource("level1.icss"));
+	}
+	@Test
+	void testSameTokensLevel2() throws IOException {
+		assertSameTokens(readResource("level2.icss"));
+	}
+	@Test
+	void testSameTokensLevel3() throws IOException {
+		assertSameTokens(readResource("level3.icss"));
+	}
+	@Test
+	void testSameTokensEdgeCases() {
+		assertSameTokens(EDGE_CASES);
+	}
+	@Test
+	void testSameErrors() {
+		assertSameTokens(INVALID_INPUT);
+	}
+
+	@Test
+	void testDecodesNumbers() {
+		ICSSScanner scanner = new ICSSScanner(CharStreams.fromString("120px 35% 7"));
+		assertEquals(120, ICSSToken.intValue(scanner.nextToken()));
+		assertEquals(35, ICSSToken.intValue(scanner.nextToken()));
+		assertEquals(7, ICSSToken.intValue(scanner.nextToken()));
+	}
+
+	@Test
+	void testTokenFactoryCreatesTheTokens() {
+		ICSSScanner scanner = new ICSSScanner(CharStreams.fromString("width: 120px;"));
+		scanner.setTokenFactory(new CommonTokenFactory(true));
+		assertEquals(CommonTokenFactory.class, scanner.getTokenFactory().getClass());
+		List<Token> tokens = new ArrayList<>();
+		for (Token token = scanner.nextToken(); token.getType() != Token.EOF; token = scanner.nextToken()) {
+			tokens.add(token);
+		}
+		assertEquals(4, tokens.size());
+		Token pixels = tokens.get(2);
+		assertEquals(CommonToken.class, pixels.getClass());
+		assertEquals(ICSSLexer.PIXELSIZE, pixels.getType());
+		assertEquals("120px", pixels.getText());
+		assertEquals(7, pixels.getCharPositionInLine());
+		assertEquals(120, ICSSToken.intValue(pixels));
+	}
+}
@@ -0,0 +1,179 @@
+package nl.han.ica.icss.parser;
+
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.ast.ASTNode;
+import nl.han.ica.icss.ast.SourcePositions;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalParserTest {
+
+	private static final String SOURCE =
+			"linkColor := #ff0000;\n" +
+			"parWidth := 500px;\n" +
+			"\n" +
+			"p {\n" +
+			"\tbackground-color: #ffffff;\n" +
+			"\twidth: parWidth;\n" +
+			"}\n" +
+			"\n" +
+			"a {\n" +
+			"\tcolor: linkColor;\n" +
+			"}\n" +
+			"\n" +
+			"#menu { width: 520px; }\n" +
+			"\n" +
+			".menu {\n" +
+			"\tcolor: #000000;\n" +
+			"}\n";
+
+	BaseErrorListener collectErrors(List<String> errors) {
+		return new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+									int charPositionInLine, String msg, RecognitionException e) {
+				errors.add(line + ":" + charPositionInLine + " " + msg);
+			}
+		};
+	}
+
+	IncrementalParser parsed(String text) {
+		IncrementalParser parser = new IncrementalParser();
+		parser.parse(text, new BaseErrorListener());
+		return parser;
+	}
+
+	//The AST, the node positions and the syntax errors must be those of a full parse of the current text
+	void assertSameAsFullParse(IncrementalParser parser, List<String> errors) {
+		List<String> fullErrors = new ArrayList<>();
+		AST full = new IncrementalParser().parse(parser.getText(), collectErrors(fullErrors));
+		assertEquals(full, parser.getAST());
+		assertSamePositions(full.root, full.getSourcePositions(), parser.getAST().root, parser.getAST().getSourcePositions());
+		assertEquals(fullErrors, errors);
+	}
+
+	void assertSamePositions(ASTNode expected, SourcePositions expectedPositions, ASTNode actual, SourcePositions actualPositions) {
+		String node = expected.getNodeLabel();
+		assertEquals(expectedPositions.getOffset(expected), actualPositions.getOffset(actual), "offset of " + node);
+		assertEquals(expectedPositions.getLine(expected), actualPositions.getLine(actual), "line of " + node);
+		assertEquals(expectedPositions.getColumn(expected), actualPositions.getColumn(actual), "column of " + node);
+		for (int i = 0; i < expected.childCount(); i++) {
+			assertSamePositions(expected.childAt(i), expectedPositions, actual.childAt(i), actualPositions);
+		}
+	}
+
+	@Test
+	void testEditInsideOneRule() {
+		IncrementalParser parser = parsed(SOURCE);
+		List<String> errors = new ArrayList<>();
+		parser.update(SOURCE.replace("520px", "1520px"), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertEquals("#menu { width: 1520px; }".length(), parser.getLastReparsedLength());
+	}
+
+	@Test
+	void testEditAcrossTwoItems() {
+		IncrementalParser parser = parsed(SOURCE);
+		List<String> errors = new ArrayList<>();
+		parser.update(SOURCE.replace("linkColor;\n}\n\n#menu { width", "#00ff00;\n}\n\n#nav {\n\theight"), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertTrue(parser.getLastReparsedLength() < parser.getText().length() / 2);
+	}
+
+	@Test
+	void testInsertAndDeleteWholeItems() {
+		IncrementalParser parser = parsed(SOURCE);
+		List<String> errors = new ArrayList<>();
+		String inserted = "h1 {\n\tcolor: #0000ff;\n}\n\n";
+		parser.edit(SOURCE.indexOf("#menu"), 0, inserted, collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertEquals(7, parser.getAST().root.body.size());
+
+		parser.update(parser.getText().replace("a {\n\tcolor: linkColor;\n}\n\n", ""), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertEquals(6, parser.getAST().root.body.size());
+
+		parser.edit(0, "linkColor := #ff0000;\n".length(), "", collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertEquals(5, parser.getAST().root.body.size());
+	}
+
+	@Test
+	void testRemovedBraceParsesTheWholeDocument() {
+		IncrementalParser parser = parsed(SOURCE);
+		List<String> errors = new ArrayList<>();
+		String broken = SOURCE.replace("\tcolor: linkColor;\n}", "\tcolor: linkColor;\n");
+		parser.update(broken, collectErrors(errors));
+		assertFalse(errors.isEmpty());
+		assertEquals(broken.length(), parser.getLastReparsedLength());
+		assertSameAsFullParse(parser, errors);
+
+		//Without item ranges the repair is parsed as a whole too
+		errors.clear();
+		parser.update(SOURCE, collectErrors(errors));
+		assertEquals(SOURCE.length(), parser.getLastReparsedLength());
+		assertSameAsFullParse(parser, errors);
+	}
+
+	@Test
+	void testUnchangedRulesAreKept() {
+		IncrementalParser parser = parsed(SOURCE);
+		List<ASTNode> before = new ArrayList<>(parser.getAST().root.body);
+		parser.update(SOURCE.replace("520px", "10px"), new BaseErrorListener());
+		List<ASTNode> after = parser.getAST().root.body;
+		for (int i = 0; i < before.size(); i++) {
+			if (i == 4) {
+				assertNotSame(before.get(i), after.get(i));
+			} else {
+				assertSame(before.get(i), after.get(i));
+			}
+		}
+	}
+
+	@Test
+	void testReparsedLengthDependsOnTheEditedItems() {
+		StringBuilder source = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			source.append(".rule").append(i).append(" {\n\twidth: ").append(i).append("px;\n}\n");
+		}
+		String text = source.toString();
+		IncrementalParser parser = parsed(text);
+		assertEquals(text.length(), parser.getLastReparsedLength());
+
+		String item = ".rule500 {\n\twidth: 500px;\n}";
+		List<String> errors = new ArrayList<>();
+		parser.update(text.replace(item, ".rule500 {\n\twidth: 500px;\n\theight: 5px;\n}"), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		assertEquals(item.length() + "\theight: 5px;\n".length(), parser.getLastReparsedLength());
+	}
+
+	@Test
+	void testItemsOnTheLineOfTheEditMoveSideways() {
+		String text = "a { width: 1px; } b { width: 2px; } c { width: 3px; }\nd { width: 4px; }\n";
+		IncrementalParser parser = parsed(text);
+		List<String> errors = new ArrayList<>();
+		parser.update(text.replace("1px", "100px"), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+		parser.update(parser.getText().replace("2px; }", "2px;\n\theight: 2px;\n}"), collectErrors(errors));
+		assertSameAsFullParse(parser, errors);
+	}
+
+	@Test
+	void testPositionsOfReplacedItemsAreReused() {
+		IncrementalParser parser = parsed(SOURCE);
+		parser.update(SOURCE.replace("520px", "0px"), new BaseErrorListener());
+		int size = parser.getAST().getSourcePositions().size();
+		for (int i = 1; i <= 100; i++) {
+			parser.update(SOURCE.replace("520px", i + "px"), new BaseErrorListener());
+		}
+		assertEquals(size, parser.getAST().getSourcePositions().size());
+		assertSameAsFullParse(parser, new ArrayList<>());
+	}
+}
@@ -0,0 +1,73 @@
+package nl.han.ica.icss.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Compares the tokens per second of ICSSScanner and the generated ICSSLexer on a large stylesheet.
+ * This is not a unit test, timings on a shared build machine say little, so surefire does not run it.
+ * Run it with the test classpath, the optional argument is the number of rules (default 20000):
+ * <pre>java -cp target/classes:target/test-classes:... nl.han.ica.icss.parser.LexerBenchmark 20000</pre>
+ */
+public class LexerBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		int rules = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String input = Fixtures.manyRules(rules, true);
+		CharStream charStream = CharStreams.fromString(input);
+
+		int lexerTokens = 0;
+		int scannerTokens = 0;
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			lexerTokens = lexWithLexer(charStream);
+			scannerTokens = lexWithScanner(charStream);
+		}
+		if (lexerTokens != scannerTokens) {
+			throw new IllegalStateException("ICSSLexer found " + lexerTokens + " tokens, ICSSScanner " + scannerTokens);
+		}
+
+		long lexerTime = Long.MAX_VALUE;
+		long scannerTime = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			lexWithLexer(charStream);
+			lexerTime = Math.min(lexerTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			lexWithScanner(charStream);
+			scannerTime = Math.min(scannerTime, System.nanoTime() - start);
+		}
+		System.out.printf("%d chars, %d tokens, best of %d rounds%n", input.length(), lexerTokens, ROUNDS);
+		report("ICSSLexer", lexerTokens, lexerTime);
+		report("ICSSScanner", scannerTokens, scannerTime);
+	}
+
+	private static int lexWithLexer(CharStream charStream) {
+		charStream.seek(0);
+		ICSSLexer lexer = new ICSSLexer(charStream);
+		lexer.removeErrorListeners();
+		int count = 0;
+		for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static int lexWithScanner(CharStream charStream) {
+		charStream.seek(0);
+		ICSSScanner scanner = new ICSSScanner(charStream);
+		int count = 0;
+		while (scanner.scan() != Token.EOF) {
+			count++;
+		}
+		return count;
+	}
+
+	private static void report(String name, int tokens, long nanos) {
+		System.out.printf("%-12s %8.1f ms %12.0f tokens/s%n", name, nanos / 1e6, tokens / (nanos / 1e9));
+	}
+}
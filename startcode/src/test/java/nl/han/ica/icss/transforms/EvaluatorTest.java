@@ -0,0 +1,76 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.generator.Generator;
+import nl.han.ica.icss.parser.Fixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluatorTest {
+
+	AST checked(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(icss);
+		assertTrue(pipeline.check(), "The stylesheet has errors");
+		return pipeline.getAST();
+	}
+
+	@Test
+	void testParallelTransformGivesTheCssOfASequentialTransform() {
+		AST ast = checked(Fixtures.manyRules(300, false));
+		AST sequential = new Evaluator().transform(ast);
+		AST parallel;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			parallel = new Evaluator().transform(ast, pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(sequential, parallel);
+		String css = new Generator().generate(sequential);
+		assertEquals(css, new Generator().generate(parallel));
+		//The shadowing locals add to the global as it is at their rule, baseWidth is reassigned at .rule5
+		assertTrue(css.contains(".rule3 {\n width: 25px;\n"));
+		assertTrue(css.contains(".rule6 {\n width: 21px;\n"));
+	}
+
+	@Test
+	void testProgramCacheKeepsTheProgramsOfUnchangedItems() {
+		Pipeline pipeline = new Pipeline();
+		String icss = Fixtures.manyRules(100, false);
+		pipeline.parseIncremental(icss);
+		assertTrue(pipeline.check());
+		AST ast = pipeline.getAST();
+		ProgramCache cache = new ProgramCache();
+		Evaluator evaluator = new Evaluator();
+		evaluator.setCache(cache);
+		String css = new Generator().generate(evaluator.transform(ast));
+		int items = ast.root.body.size();
+		assertEquals(items, cache.getCompiledItems());
+
+		//Another evaluator finds the programs in the cache, also when the pool evaluates the rules
+		Evaluator again = new Evaluator();
+		again.setCache(cache);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(css, new Generator().generate(again.transform(ast, pool)));
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, cache.getCompiledItems());
+		assertEquals(items, cache.getReusedItems());
+
+		//After an edit only the edited rule is compiled again
+		pipeline.parseIncremental(icss.replace(".rule50 {\n\twidth: baseWidth * 2 - 1px;", ".rule50 {\n\twidth: baseWidth * 3 - 1px;"));
+		assertTrue(pipeline.check());
+		AST edited = pipeline.getAST();
+		String editedCss = new Generator().generate(again.transform(edited));
+		assertEquals(1, cache.getCompiledItems());
+		assertEquals(new Generator().generate(new Evaluator().transform(edited)), editedCss);
+		assertNotEquals(css, editedCss);
+	}
+}
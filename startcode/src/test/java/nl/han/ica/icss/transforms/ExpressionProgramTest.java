@@ -0,0 +1,156 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.*;
+import nl.han.ica.icss.ast.operations.AddOperation;
+import nl.han.ica.icss.ast.operations.MultiplyOperation;
+import nl.han.ica.icss.ast.operations.SubtractOperation;
+import nl.han.ica.icss.ast.selectors.TagSelector;
+import nl.han.ica.icss.checker.Resolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionProgramTest {
+
+	private static final String[] VARIABLES = {"pixelVar", "percentVar", "scalarVar", "colorVar", "boolVar", "unsetVar"};
+	private static final Literal[] VALUES = {new PixelLiteral(7), new PercentageLiteral(30), new ScalarLiteral(4),
+			new ColorLiteral("#ffffff"), new BoolLiteral(true), null};
+
+	//The tree walking calculate the Evaluator had before operations were compiled
+	Literal calculate(Operation op, Resolver resolver, Literal[] frame) {
+		Expression left = value(op.lhs, resolver, frame);
+		Expression right = value(op.rhs, resolver, frame);
+		if (left instanceof PercentageLiteral || right instanceof PercentageLiteral) {
+			return new PercentageLiteral(calcValue(op, getValue(left), getValue(right)));
+		} else if (left instanceof PixelLiteral || right instanceof PixelLiteral) {
+			return new PixelLiteral(calcValue(op, getValue(left), getValue(right)));
+		} else if (left instanceof ScalarLiteral && right instanceof ScalarLiteral) {
+			return new ScalarLiteral(calcValue(op, getValue(left), getValue(right)));
+		}
+		return null;
+	}
+
+	Expression value(Expression expression, Resolver resolver, Literal[] frame) {
+		if (expression instanceof Operation) {
+			return calculate((Operation) expression, resolver, frame);
+		}
+		if (expression instanceof VariableReference) {
+			int slot = resolver.getSlot((VariableReference) expression);
+			return slot >= 0 && slot < frame.length ? frame[slot] : null;
+		}
+		return expression;
+	}
+
+	int calcValue(Operation op, int left, int right) {
+		if (op instanceof MultiplyOperation) {
+			return left * right;
+		} else if (op instanceof SubtractOperation) {
+			return left - right;
+		} else if (op instanceof AddOperation) {
+			return left + right;
+		}
+		return 0;
+	}
+
+	int getValue(Expression value) {
+		if (value instanceof ScalarLiteral) {
+			return ((ScalarLiteral) value).value;
+		} else if (value instanceof PixelLiteral) {
+			return ((PixelLiteral) value).value;
+		} else if (value instanceof PercentageLiteral) {
+			return ((PercentageLiteral) value).value;
+		}
+		return 0;
+	}
+
+	Expression randomOperand(Random random) {
+		switch (random.nextInt(4)) {
+			case 0: return new PixelLiteral(random.nextInt(100));
+			case 1: return new PercentageLiteral(random.nextInt(100));
+			case 2: return new ScalarLiteral(random.nextInt(10));
+			default: return new VariableReference(VARIABLES[random.nextInt(VARIABLES.length)]);
+		}
+	}
+
+	Operation randomOperation(Random random) {
+		switch (random.nextInt(3)) {
+			case 0: return new AddOperation();
+			case 1: return new SubtractOperation();
+			default: return new MultiplyOperation();
+		}
+	}
+
+	Expression randomTree(Random random, int depth) {
+		if (depth == 0 || random.nextInt(4) == 0) {
+			return randomOperand(random);
+		}
+		return (Expression) randomOperation(random)
+				.addChild(randomTree(random, depth - 1))
+				.addChild(randomTree(random, depth - 1));
+	}
+
+	//Runs the program of op in a stylesheet that assigns the variables, and compares it with calculate
+	void assertSameAsCalculate(Operation op) {
+		Stylesheet stylesheet = new Stylesheet();
+		for (int i = 0; i < VARIABLES.length - 1; i++) {
+			stylesheet.addChild(new VariableAssignment()
+					.addChild(new VariableReference(VARIABLES[i]))
+					.addChild(VALUES[i]));
+		}
+		stylesheet.addChild(new Stylerule()
+				.addChild(new TagSelector("p"))
+				.addChild(new Declaration("width").addChild(op)));
+		Resolver resolver = new Resolver();
+		resolver.resolve(new AST(stylesheet));
+		Literal[] frame = new Literal[resolver.getGlobalCount()];
+		for (int i = 0; i < VARIABLES.length - 1; i++) {
+			frame[resolver.getGlobalSlot(VARIABLES[i])] = VALUES[i];
+		}
+
+		ExpressionProgram program = ExpressionProgram.compile(op);
+		Literal expected = calculate(op, resolver, frame);
+		Literal actual = program.run(frame, null, resolver, new int[program.getMaxDepth()], new int[program.getMaxDepth()]);
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	void testMixedUnitsGiveTheValueOfCalculate() {
+		Random random = new Random(21);
+		for (int i = 0; i < 2000; i++) {
+			Expression tree = randomTree(random, 1 + random.nextInt(6));
+			if (tree instanceof Operation) {
+				assertSameAsCalculate((Operation) tree);
+			}
+		}
+	}
+
+	@Test
+	void testSubtractionKeepsTheOrderOfItsOperands() {
+		//(10px - 3px) - 2px and 10px - (3px - 2px)
+		Operation leftNested = (Operation) new SubtractOperation()
+				.addChild(new SubtractOperation().addChild(new PixelLiteral(10)).addChild(new PixelLiteral(3)))
+				.addChild(new PixelLiteral(2));
+		Operation rightNested = (Operation) new SubtractOperation()
+				.addChild(new PixelLiteral(10))
+				.addChild(new SubtractOperation().addChild(new PixelLiteral(3)).addChild(new PixelLiteral(2)));
+		assertSameAsCalculate(leftNested);
+		assertSameAsCalculate(rightNested);
+		ExpressionProgram program = ExpressionProgram.compile(rightNested);
+		assertEquals(new PixelLiteral(9), program.run(new Literal[0], null, new Resolver(), new int[program.getMaxDepth()], new int[program.getMaxDepth()]));
+	}
+
+	@Test
+	void testDeepLeftNestedChainGivesTheValueOfCalculate() {
+		//The parser nests a chain to the left, so the stacks stay two deep however long it is
+		Random random = new Random(5);
+		Expression chain = randomOperand(random);
+		for (int i = 0; i < 1000; i++) {
+			chain = (Expression) randomOperation(random).addChild(chain).addChild(randomOperand(random));
+		}
+		assertSameAsCalculate((Operation) chain);
+		assertEquals(2, ExpressionProgram.compile((Operation) chain).getMaxDepth());
+	}
+}
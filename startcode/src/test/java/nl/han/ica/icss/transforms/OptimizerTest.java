@@ -0,0 +1,75 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.AST;
+import nl.han.ica.icss.generator.Generator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptimizerTest {
+
+	AST evaluate(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(icss);
+		assertTrue(pipeline.check(), "The stylesheet has errors");
+		pipeline.transform();
+		return pipeline.getAST();
+	}
+
+	@Test
+	void testOverriddenDeclarationsAreDroppedAndRulesMerged() {
+		Optimizer optimizer = new Optimizer();
+		AST optimized = optimizer.transform(evaluate(
+				"p {\n width: 10px;\n width: 20px;\n}\na {\n color: #ffffff;\n}\np {\n height: 5px;\n width: 30px;\n}\n"));
+		assertEquals("p {\n height: 5px;\n width: 30px;\n}\na {\n color: #ffffff;\n}\n", new Generator().generate(optimized));
+		assertEquals(optimizer.getBytesBefore() - optimizer.getBytesAfter(), optimizer.getBytesSaved());
+		assertTrue(optimizer.getBytesSaved() > 0);
+	}
+
+	@Test
+	void testRulesAreNotMergedPastARuleSettingTheSameProperty() {
+		//Merging the second p into the first would let .menu override it
+		String css = "p {\n color: #ffffff;\n}\n.menu {\n background-color: #000000;\n}\np {\n background: #ff0000;\n}\n";
+		AST optimized = new Optimizer().transform(evaluate(css));
+		assertEquals(css, new Generator().generate(optimized));
+	}
+
+	@Test
+	void testRulesAreNotMergedPastAShorthandOrLogicalFormOfTheirProperty() {
+		String[][] pairs = {
+				{"top: 1px", "inset: 5px", "top: 2px"},
+				{"inset: 1px", "left: 5px", "inset: 2px"},
+				{"row-gap: 1px", "gap: 5px", "column-gap: 2px"},
+				{"width: 1px", "inline-size: 5px", "width: 2px"},
+				{"height: 1px", "block-size: 5px", "height: 2px"},
+				{"inline-size: 1px", "height: 5px", "inline-size: 2px"},
+				{"column-count: 1", "columns: 5", "column-count: 2"},
+				{"margin-top: 1px", "margin-block: 5px", "margin-left: 2px"},
+				{"border-top-color: #ffffff", "border-color: #000000", "border-top-color: #ff0000"}
+		};
+		for (String[] pair : pairs) {
+			String css = ".x {\n " + pair[0] + ";\n}\n.y {\n " + pair[1] + ";\n}\n.x {\n " + pair[2] + ";\n}\n";
+			assertEquals(css, new Generator().generate(new Optimizer().transform(evaluate(css))), pair[1]);
+		}
+	}
+
+	@Test
+	void testPropertiesWithoutKnownLonghandsAreNotMovedPastOtherProperties() {
+		//Nothing says what grid-area sets, so it does not move past color, and color not past it
+		String unknownMoves = ".x {\n grid-area: 1px;\n}\n.y {\n color: #ffffff;\n}\n.x {\n grid-area: 2px;\n}\n";
+		String knownMoves = ".x {\n color: #ffffff;\n}\n.y {\n grid-area: 1px;\n}\n.x {\n color: #000000;\n}\n";
+		assertEquals(unknownMoves, new Generator().generate(new Optimizer().transform(evaluate(unknownMoves))));
+		assertEquals(knownMoves, new Generator().generate(new Optimizer().transform(evaluate(knownMoves))));
+		//Properties that are known to be different still move past each other
+		assertEquals(".x {\n top: 2px;\n}\n.y {\n width: 5px;\n}\n", new Generator().generate(new Optimizer().transform(
+				evaluate(".x {\n top: 1px;\n}\n.y {\n width: 5px;\n}\n.x {\n top: 2px;\n}\n"))));
+	}
+
+	@Test
+	void testIdenticalBlocksAreGrouped() {
+		AST optimized = new Optimizer().transform(evaluate(
+				"p {\n width: 10px;\n}\n#menu {\n color: #ffffff;\n}\n.menu {\n width: 10px;\n}\n"));
+		assertEquals("p, .menu {\n width: 10px;\n}\n#menu {\n color: #ffffff;\n}\n", new Generator().generate(optimized));
+	}
+}
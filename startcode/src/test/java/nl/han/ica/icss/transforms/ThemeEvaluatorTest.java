@@ -0,0 +1,116 @@
+package nl.han.ica.icss.transforms;
+
+import nl.han.ica.icss.Pipeline;
+import nl.han.ica.icss.ast.*;
+import nl.han.ica.icss.ast.literals.BoolLiteral;
+import nl.han.ica.icss.ast.literals.ColorLiteral;
+import nl.han.ica.icss.ast.literals.PixelLiteral;
+import nl.han.ica.icss.ast.literals.ScalarLiteral;
+import nl.han.ica.icss.checker.Checker;
+import nl.han.ica.icss.parser.Fixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThemeEvaluatorTest {
+
+	AST checked(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(icss);
+		assertTrue(pipeline.check(), "The stylesheet has errors");
+		return pipeline.getAST();
+	}
+
+	@Test
+	void testResolvingATreeThatSharesNodesLeavesTheThemesAlone() {
+		AST ast = checked("baseWidth := 10px;\np {\n\twidth: baseWidth + 5px;\n}\n");
+		ThemeEvaluator themes = new ThemeEvaluator(ast);
+		String css = themes.generate(Collections.emptyMap());
+
+		//Another tree with the same rule, in which baseWidth gets another slot
+		ArrayList<ASTNode> body = new ArrayList<>();
+		body.add(new VariableAssignment().addChild(new VariableReference("linkColor")).addChild(new ColorLiteral("#ffffff")));
+		body.addAll(ast.root.body);
+		AST other = new AST(new Stylesheet(body));
+		new Checker().check(other);
+		assertTrue(other.getErrors().isEmpty());
+		new Evaluator().transform(other);
+
+		assertEquals(css, themes.generate(Collections.emptyMap()));
+		assertEquals("p {\n width: 15px;\n}\n", css);
+	}
+
+	//The CSS of a full pipeline run
+	String generate(String icss) {
+		Pipeline pipeline = new Pipeline();
+		pipeline.parseString(icss);
+		assertTrue(pipeline.check(), "The stylesheet has errors");
+		pipeline.transform();
+		return pipeline.generate();
+	}
+
+	@Test
+	void testThemesGiveTheCssOfTheRewrittenStylesheet() {
+		String icss = Fixtures.manyRules(100, false);
+		ThemeEvaluator themes = new ThemeEvaluator(checked(icss));
+		assertEquals(generate(icss), themes.generate(Collections.emptyMap()));
+
+		//baseWidth is assigned again between the rules and doubledWidth is computed from it
+		Map<String, Literal> wide = new HashMap<>();
+		wide.put("baseWidth", new PixelLiteral(42));
+		wide.put("sizeRatio", new ScalarLiteral(5));
+		Map<String, Literal> narrow = new HashMap<>();
+		narrow.put("isWide", new BoolLiteral(false));
+		narrow.put("accentColor", new ColorLiteral("#abcdef"));
+		String wideIcss = icss.replaceAll("(?m)^baseWidth := [^;]*;", "baseWidth := 42px;")
+				.replaceAll("(?m)^sizeRatio := [^;]*;", "sizeRatio := 5;");
+		String narrowIcss = icss.replaceAll("(?m)^isWide := [^;]*;", "isWide := FALSE;")
+				.replaceAll("(?m)^accentColor := [^;]*;", "accentColor := #abcdef;");
+
+		assertEquals(generate(wideIcss), themes.generate(wide));
+		assertEquals(generate(narrowIcss), themes.generate(narrow));
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			assertEquals(Arrays.asList(generate(wideIcss), generate(icss), generate(narrowIcss)),
+					themes.generate(Arrays.asList(wide, Collections.emptyMap(), narrow), pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void testInvalidThemesAreRejected() {
+		ThemeEvaluator themes = new ThemeEvaluator(checked(
+				"baseWidth := 10px;\nmixedValue := 5px;\np {\n\twidth: baseWidth + mixedValue;\n}\n" +
+				"mixedValue := #ffffff;\na {\n\tcolor: mixedValue;\n\tlocalWidth := 1px;\n}\n"));
+		assertThrows(IllegalArgumentException.class,
+				() -> themes.generate(Collections.singletonMap("unknownVar", new PixelLiteral(1))));
+		assertThrows(IllegalArgumentException.class,
+				() -> themes.generate(Collections.singletonMap("localWidth", new PixelLiteral(1))));
+		assertThrows(IllegalArgumentException.class,
+				() -> themes.generate(Collections.singletonMap("baseWidth", null)));
+		IllegalArgumentException wrongType = assertThrows(IllegalArgumentException.class,
+				() -> themes.generate(Collections.singletonMap("baseWidth", new BoolLiteral(true))));
+		assertEquals("Variable baseWidth needs a pixel value, not a boolean", wrongType.getMessage());
+		assertThrows(IllegalArgumentException.class,
+				() -> themes.generate(Collections.singletonMap("mixedValue", new PixelLiteral(1))));
+
+		List<Map<String, Literal>> list = Arrays.asList(Collections.emptyMap(),
+				Collections.singletonMap("baseWidth", new ColorLiteral("#000000")));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			assertThrows(IllegalArgumentException.class, () -> themes.generate(list, pool));
+		} finally {
+			pool.shutdown();
+		}
+		assertTrue(themes.generate(Collections.singletonMap("baseWidth", new PixelLiteral(15))).startsWith("p {\n width: 20px;\n}\n"));
+	}
+}